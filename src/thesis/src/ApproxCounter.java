@@ -0,0 +1,256 @@
+package thesis.src;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 宽度太大、精确 DP 跑不完时的近似计数（-Dcqa.approx=true，且分解宽度 ≥ -Dcqa.approx.width）。
+ *
+ * 估计量：按固定顶点序逐个决定 v ∈ R / v ∉ R 的随机搜索树游走（Knuth 估计）。
+ *  - v 可入 R：不会补全任何 Ec 边或 Es 边
+ *  - v 可不入 R：v 仍可能被某条 Ec 边“挡住”（边上其余点都未被排除），且不会让之前排除的点失去最后一条可挡边
+ * 两者都可行时等概率选一支、权重乘 2；都不可行时该样本为 0。走到底即是一个不含 Es 边的 repair，
+ * 所以权重的期望恰为 NUMBERFALSIFY（无偏）。权重总是 2 的幂，只存指数。
+ *
+ * 中位数-均值：样本按序号轮流分进 k = ⌈8 ln(1/δ)⌉ 组，取组均值的中位数；若真实 relVar 已知，
+ * 每组样本数 m ≥ 4·relVar/ε² 时由 Chebyshev 每组相对误差 ≤ ε 的概率 ≥ 3/4，中位数失败概率 ≤ e^{-k/8} ≤ δ。
+ * 这里 relVar 只能用样本估计，而这个估计量重尾（少数游走权重极大），样本方差常常偏低，
+ * 所以报告的 ε 是经验值（empirical_eps），不是 (ε, δ) 保证。样本数 / 时间预算先用完时照实报告达到的值。
+ * 和、平方和与各组的和随样本增量累计（指数上限变大时整体缩放），每轮检查停止条件只需 O(k)。
+ */
+final class ApproxCounter {
+
+    static final double EPS = Double.parseDouble(System.getProperty("cqa.approx.eps", "0.05"));
+    static final double DELTA = Double.parseDouble(System.getProperty("cqa.approx.delta", "0.05"));
+    static final long MAX_SAMPLES = Long.getLong("cqa.approx.samples", 10_000_000L);
+    static final long MAX_MILLIS = Long.getLong("cqa.approx.millis", 60_000L);
+    static final long SEED = Long.getLong("cqa.approx.seed", 1L);
+
+    /** 每个任务一次抽取的样本数；轮与轮之间检查停止条件 */
+    private static final int CHUNK = 4096;
+
+    static final class Estimate {
+        BigInteger value;
+        double eps;          // 经验相对误差（按样本 relVar 折算，不是保证）
+        double delta;
+        long samples;
+        boolean met;         // 是否在预算内使经验 ε 达到目标
+        String summary(){
+            return String.format("samples=%d empirical_eps=%.4f delta=%.3f [sample-variance estimate, not a guaranteed bound]%s",
+                    samples, eps, delta, met ? "" : " (budget exhausted)");
+        }
+    }
+
+    private final int[] order;                  // 参与边的顶点，BFS 序
+    private final int[][] cEdges, sEdges;
+    private final int[][] cOf, sOf;             // 顶点 -> 所在边的下标
+    private final int n;
+
+    ApproxCounter(Dynmaic_Programming_Based_for_CQA.Hypergraph H){
+        int maxV = H.n;
+        for (BitSet e : H.conflictEdges) maxV = Math.max(maxV, e.length());
+        for (BitSet e : H.conflictCliques) maxV = Math.max(maxV, e.length());
+        for (BitSet e : H.solutionEdges) maxV = Math.max(maxV, e.length());
+        n = maxV;
+        List<BitSet> conflict = new ArrayList<>(H.conflictEdges);
+        for (BitSet k : H.conflictCliques) { // 游走按边检查，团在这里展开
+            for (int a = k.nextSetBit(0); a >= 0; a = k.nextSetBit(a + 1))
+                for (int b = k.nextSetBit(a + 1); b >= 0; b = k.nextSetBit(b + 1))
+                    conflict.add(Dynmaic_Programming_Based_for_CQA.edge(a, b));
+        }
+        cEdges = toArrays(conflict);
+        sEdges = toArrays(H.solutionEdges);
+        cOf = incidence(cEdges, n);
+        sOf = incidence(sEdges, n);
+        order = bfsOrder();
+    }
+
+    Estimate estimate(){
+        int threads = Runtime.getRuntime().availableProcessors();
+        int k = Math.max(1, (int) Math.ceil(8 * Math.log(1 / DELTA)));
+        long deadline = System.currentTimeMillis() + MAX_MILLIS;
+        Moments mo = new Moments(k);
+        int round = 0;
+        Estimate est;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            while (true) {
+                List<Future<int[]>> fs = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    long seed = SEED * 0x9E3779B97F4A7C15L + (long) round * threads + t;
+                    fs.add(pool.submit(() -> sampleChunk(new SplittableRandom(seed))));
+                }
+                for (Future<int[]> f : fs) mo.add(f.get());      // 按任务序累计，结果与线程调度无关
+                round++;
+                est = mo.summarize();
+                if (est.met || mo.total >= MAX_SAMPLES || System.currentTimeMillis() >= deadline) break;
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException("sampling failed", e);
+        } finally {
+            pool.shutdownNow();
+        }
+        return est;
+    }
+
+    /**
+     * 增量的和、平方和与组和：值存为 2^(e - maxExp)，maxExp 变大时整体乘 2^(旧 - 新) 缩放，
+     * 用 double 运算也不会溢出。第 i 个样本进第 i mod k 组。
+     */
+    private static final class Moments {
+        final int k;
+        final double[] groupSum;
+        final long[] groupCount;
+        double sum, sq;
+        long total;
+        int maxExp = -1;
+
+        Moments(int k){ this.k = k; groupSum = new double[k]; groupCount = new long[k]; }
+
+        void add(int[] chunk){
+            for (int e : chunk) {
+                if (e > maxExp) rescale(e);
+                double v = e < 0 ? 0 : Math.scalb(1.0, e - maxExp);
+                sum += v; sq += v * v;
+                int g = (int) (total % k);
+                groupSum[g] += v; groupCount[g]++;
+                total++;
+            }
+        }
+
+        private void rescale(int e){
+            if (maxExp >= 0) {
+                int d = maxExp - e;
+                sum = Math.scalb(sum, d); sq = Math.scalb(sq, 2 * d);
+                for (int g = 0; g < k; g++) groupSum[g] = Math.scalb(groupSum[g], d);
+            }
+            maxExp = e;
+        }
+
+        /** 中位数-均值；经验 ε 按最小的组样本数折算 */
+        Estimate summarize(){
+            Estimate est = new Estimate();
+            est.samples = total; est.delta = DELTA;
+            if (maxExp < 0) { // 全为 0：估计为 0，无法给出相对误差
+                est.value = BigInteger.ZERO; est.eps = Double.POSITIVE_INFINITY;
+                return est;
+            }
+            double mean = sum / total;
+            double relVar = Math.max(0, sq / total - mean * mean) / (mean * mean);
+            int groups = (int) Math.min(k, total);
+            double[] means = new double[groups];
+            long m = Long.MAX_VALUE;
+            for (int g = 0; g < groups; g++) {
+                means[g] = groupSum[g] / groupCount[g];
+                m = Math.min(m, groupCount[g]);
+            }
+            Arrays.sort(means);
+            double med = means[groups / 2];
+            est.eps = Math.sqrt(4 * relVar / m);
+            est.met = groups == k && est.eps <= EPS;
+            est.value = new BigDecimal(med).multiply(new BigDecimal(BigInteger.ONE.shiftLeft(maxExp)))
+                    .setScale(0, java.math.RoundingMode.HALF_UP).toBigInteger();
+            return est;
+        }
+    }
+
+    private int[] sampleChunk(SplittableRandom rnd){
+        byte[] st = new byte[n];
+        int[] out = new int[CHUNK];
+        for (int i = 0; i < CHUNK; i++) {
+            out[i] = sampleOnce(rnd, st);
+            Arrays.fill(st, (byte) 0);
+        }
+        return out;
+    }
+
+    private static final byte UNDECIDED = 0, IN = 1, OUT = 2;
+
+    /** 一次游走；返回权重指数，死路返回 -1 */
+    private int sampleOnce(SplittableRandom rnd, byte[] st){
+        int exp = 0;
+        for (int v : order) {
+            boolean canIn = !completes(v, cEdges, cOf, st) && !completes(v, sEdges, sOf, st);
+            st[v] = OUT;
+            boolean canOut = blockable(v, st) && neighboursStillBlockable(v, st);
+            boolean in;
+            if (canIn && canOut) { exp++; in = rnd.nextBoolean(); }
+            else if (canIn) in = true;
+            else if (canOut) in = false;
+            else return -1;
+            st[v] = in ? IN : OUT;
+        }
+        return exp;
+    }
+
+    /** v 加入后是否有边整条落在 R 内 */
+    private static boolean completes(int v, int[][] edges, int[][] of, byte[] st){
+        for (int ei : of[v]) {
+            boolean all = true;
+            for (int u : edges[ei]) if (u != v && st[u] != IN) { all = false; break; }
+            if (all) return true;
+        }
+        return false;
+    }
+
+    /** 已排除的 v 还有没有一条边，其余点都未被排除 */
+    private boolean blockable(int v, byte[] st){
+        for (int ei : cOf[v]) {
+            boolean ok = true;
+            for (int u : cEdges[ei]) if (u != v && st[u] == OUT) { ok = false; break; }
+            if (ok) return true;
+        }
+        return false;
+    }
+
+    private boolean neighboursStillBlockable(int v, byte[] st){
+        for (int ei : cOf[v]) for (int u : cEdges[ei]) {
+            if (u != v && st[u] == OUT && !blockable(u, st)) return false;
+        }
+        return true;
+    }
+
+    /* ---------- 预处理 ---------- */
+
+    private static int[][] toArrays(List<BitSet> edges){
+        int[][] out = new int[edges.size()][];
+        for (int i = 0; i < out.length; i++) out[i] = edges.get(i).stream().toArray();
+        return out;
+    }
+
+    private static int[][] incidence(int[][] edges, int n){
+        int[] deg = new int[n];
+        for (int[] e : edges) for (int v : e) deg[v]++;
+        int[][] of = new int[n][];
+        for (int v = 0; v < n; v++) of[v] = new int[deg[v]];
+        Arrays.fill(deg, 0);
+        for (int i = 0; i < edges.length; i++) for (int v : edges[i]) of[v][deg[v]++] = i;
+        return of;
+    }
+
+    /** 边上的顶点按冲突 + 解边的 BFS 序排列：相邻点靠近，死路能尽早发现 */
+    private int[] bfsOrder(){
+        boolean[] seen = new boolean[n];
+        int[] out = new int[n];
+        int cnt = 0;
+        for (int s = 0; s < n; s++) {
+            if (seen[s] || (cOf[s].length == 0 && sOf[s].length == 0)) continue;
+            seen[s] = true;
+            int head = cnt;
+            out[cnt++] = s;
+            while (head < cnt) {
+                int u = out[head++];
+                cnt = visit(u, cEdges, cOf, seen, out, cnt);
+                cnt = visit(u, sEdges, sOf, seen, out, cnt);
+            }
+        }
+        return Arrays.copyOf(out, cnt);
+    }
+
+    private static int visit(int u, int[][] edges, int[][] of, boolean[] seen, int[] out, int cnt){
+        for (int ei : of[u]) for (int w : edges[ei]) if (!seen[w]) { seen[w] = true; out[cnt++] = w; }
+        return cnt;
+    }
+}
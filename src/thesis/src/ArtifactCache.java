@@ -0,0 +1,188 @@
+package thesis.src;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.*;
+import java.util.*;
+
+/**
+ * 跨运行的内容寻址缓存（默认 result/cache/）：
+ *  - 冲突超边：key = sha256(csv, .fd, .dc 的内容)
+ *  - 树分解：  key = sha256(分解方法, 规范化后的联合图：排序的顶点与边)
+ * 命中时更新文件 mtime；目录总大小超过 -Dcqa.cache.maxBytes 时按 mtime 从旧到新淘汰。
+ */
+final class ArtifactCache {
+
+    static final long MAX_BYTES = Long.getLong("cqa.cache.maxBytes", 512L << 20);
+
+    private final Path dir;
+
+    ArtifactCache(Path dir){ this.dir = dir; }
+
+    /* ---------- key ---------- */
+
+    /** 按文件内容求 key；不存在的文件与空文件区分开 */
+    static String fileKey(String kind, Path... files) throws IOException {
+        MessageDigest md = sha256();
+        md.update(kind.getBytes());
+        byte[] buf = new byte[1 << 16];
+        for (Path f : files) {
+            if (!Files.exists(f)) { md.update((byte) 0); continue; }
+            md.update((byte) 1);
+            try (InputStream in = Files.newInputStream(f)) {
+                int r;
+                while ((r = in.read(buf)) > 0) md.update(buf, 0, r);
+            }
+            md.update((byte) 0xFF); // 文件分隔
+        }
+        return hex(md.digest());
+    }
+
+    /** 规范化联合图的 key：顶点、边各自排序后入摘要，与 HashSet 的遍历顺序无关 */
+    static String graphKey(String method, Set<Integer> nodes, Set<Long> edges){
+        MessageDigest md = sha256();
+        md.update(method.getBytes());
+        int[] vs = nodes.stream().mapToInt(Integer::intValue).sorted().toArray();
+        long[] es = edges.stream().mapToLong(Long::longValue).sorted().toArray();
+        byte[] b = new byte[8];
+        update(md, b, vs.length);
+        for (int v : vs) update(md, b, v);
+        update(md, b, es.length);
+        for (long e : es) update(md, b, e);
+        return hex(md.digest());
+    }
+
+    /** 同上，另含隐式冲突团（无团时与上面的键相同） */
+    static String graphKey(String method, Set<Integer> nodes, Set<Long> edges, List<int[]> cliques){
+        if (cliques.isEmpty()) return graphKey(method, nodes, edges);
+        MessageDigest md = sha256();
+        md.update(graphKey(method, nodes, edges).getBytes());
+        List<int[]> cs = new ArrayList<>(cliques);
+        cs.sort(Arrays::compare);
+        byte[] b = new byte[8];
+        update(md, b, cs.size());
+        for (int[] c : cs) {
+            update(md, b, c.length);
+            for (int v : c) update(md, b, v);
+        }
+        return hex(md.digest());
+    }
+
+    /* ---------- 读写 ---------- */
+
+    /** 命中返回缓存文件（并刷新 mtime 作为最近使用），否则 null */
+    Path lookup(String key, String ext){
+        Path p = dir.resolve(key + "." + ext);
+        if (!Files.isRegularFile(p)) return null;
+        try { Files.setLastModifiedTime(p, FileTime.fromMillis(System.currentTimeMillis())); }
+        catch (IOException ignored) { }
+        return p;
+    }
+
+    /**
+     * 把 src 放进缓存（先写临时文件再原子改名），随后按大小淘汰。
+     * 缓存只是加速：写入失败只报 [WARN]，不影响本次计数。
+     */
+    void store(String key, String ext, Path src){
+        Path tmp = null;
+        try {
+            Files.createDirectories(dir);
+            tmp = Files.createTempFile(dir, key, ".tmp");
+            Files.copy(src, tmp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp, dir.resolve(key + "." + ext), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            tmp = null;
+            evict();
+        } catch (IOException e) {
+            System.out.println("[WARN] Cache not written: " + e);
+        } finally {
+            deleteTmp(tmp);
+        }
+    }
+
+    /** 超边以 [len, ids...] 的 int 流存入缓存，保持遍历顺序；失败同 store */
+    void storeHyperedges(String key, Iterable<int[]> hyperedges){
+        Path tmp = null;
+        try {
+            Files.createDirectories(dir);
+            tmp = Files.createTempFile(dir, key, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                for (int[] he : hyperedges) {
+                    out.writeInt(he.length);
+                    for (int v : he) out.writeInt(v);
+                }
+            }
+            Files.move(tmp, dir.resolve(key + ".he"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            tmp = null;
+            evict();
+        } catch (IOException e) {
+            System.out.println("[WARN] Cache not written: " + e);
+        } finally {
+            deleteTmp(tmp);
+        }
+    }
+
+    private static void deleteTmp(Path tmp){
+        if (tmp != null) try { Files.deleteIfExists(tmp); } catch (IOException ignored) { }
+    }
+
+    static HyperedgeSpool readHyperedges(Path p, Path spillDir) throws IOException {
+        HyperedgeSpool spool = new HyperedgeSpool(spillDir);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(p)))) {
+            while (true) {
+                int len;
+                try { len = in.readInt(); } catch (EOFException eof) { break; }
+                int[] he = new int[len];
+                for (int i = 0; i < len; i++) he[i] = in.readInt();
+                spool.add(he);
+            }
+        }
+        return spool;
+    }
+
+    /** 并发的 store 会同时淘汰（服务模式、分片 worker）：期间消失的文件直接跳过 */
+    private synchronized void evict() throws IOException {
+        List<Path> files = new ArrayList<>();
+        Map<Path,Long> size = new HashMap<>();
+        Map<Path,Long> mtime = new HashMap<>();
+        long total = 0;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            for (Path p : ds) {
+                if (p.toString().endsWith(".tmp")) continue;
+                try {
+                    if (!Files.isRegularFile(p)) continue;
+                    size.put(p, Files.size(p));
+                    mtime.put(p, Files.getLastModifiedTime(p).toMillis());
+                } catch (NoSuchFileException gone) {
+                    size.remove(p);
+                    continue;
+                }
+                files.add(p);
+                total += size.get(p);
+            }
+        }
+        if (total <= MAX_BYTES) return;
+        files.sort(Comparator.comparingLong(mtime::get));
+        for (Path p : files) {
+            if (total <= MAX_BYTES) break;
+            Files.deleteIfExists(p);
+            total -= size.get(p);
+        }
+    }
+
+    /* ---------- 工具 ---------- */
+
+    private static MessageDigest sha256(){
+        try { return MessageDigest.getInstance("SHA-256"); }
+        catch (NoSuchAlgorithmException e) { throw new IllegalStateException(e); }
+    }
+    private static void update(MessageDigest md, byte[] b, long x){
+        for (int i = 0; i < 8; i++) b[i] = (byte) (x >>> (56 - 8 * i));
+        md.update(b);
+    }
+    private static String hex(byte[] d){
+        StringBuilder sb = new StringBuilder();
+        for (byte x : d) sb.append(String.format("%02x", x));
+        return sb.toString();
+    }
+}
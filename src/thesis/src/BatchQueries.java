@@ -0,0 +1,202 @@
+package thesis.src;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * 批量模式：同一张表的多个查询共用一次冲突超边、一棵树分解和一份 Engine.Shared。
+ *
+ *   java thesis.src.BatchQueries [table ...]     （缺省为 csv_inputs/ 下所有表）
+ *   查询取自 query/<table>/*.query，结果写 result/<table>_batch_numberfalsify.txt（每行 "查询名 计数"）
+ *
+ * 做法：每个查询照常求 Prop.10 可达集 U_q 并化简；所有需要 DP 的查询的化简图取并，只分解一次。
+ * 对查询 q，DP 只计 U_q 内的冲突边与 q 的解边，共享 TD 上 U_q 之外的点没有任何边，必在 repair 中，
+ * 计数因子为 1，所以结果与单独跑该查询相同。无解边、且整棵子树都在 U_q 内的子问题与查询无关，
+ * 其 g 值存在 Shared 中跨查询复用。
+ */
+public class BatchQueries {
+
+    /** 一个查询的中间结果：能直接得出计数的不进共享分解 */
+    private static final class Query {
+        final String name;
+        final Set<Integer> reach;
+        final FactReduction red;
+        final List<int[]> solutionHypers;
+        BigInteger count;
+        Query(String name, Set<Integer> reach, FactReduction red, List<int[]> solutionHypers){
+            this.name = name; this.reach = reach; this.red = red; this.solutionHypers = solutionHypers;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Files.createDirectories(Paths.get(Main.OUT_DIR));
+        List<String> tables = new ArrayList<>(Arrays.asList(args));
+        if (tables.isEmpty()) {
+            File[] csvFiles = new File(Main.CSV_DIR).listFiles((_, n) -> n.toLowerCase().endsWith(".csv"));
+            if (csvFiles != null) for (File f : csvFiles) tables.add(f.getName().replace(".csv", ""));
+        }
+        for (String base : tables) {
+            Path qdir = Path.of(Main.QUERY_DIR, base);
+            if (!Files.isDirectory(qdir)) {
+                System.out.println("[INFO] " + base + ": no " + qdir + " directory; skipped.");
+                continue;
+            }
+            run(base, qdir);
+        }
+    }
+
+    static void run(String base, Path qdir) throws Exception {
+        Path csv = Path.of(Main.CSV_DIR, base + ".csv");
+        Path fdPath = Path.of(Main.FD_DIR, base + ".fd");
+        Path dcPath = Path.of(Main.DC_DIR, base + ".dc");
+        List<Main.FD> fds = Main.readFD(fdPath);
+        List<Main.DCClause> dcs = Main.readDC(dcPath);
+        boolean pureFD = dcs.isEmpty();
+
+        List<Path> qfiles = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(qdir, "*.query")) {
+            for (Path p : ds) qfiles.add(p);
+        }
+        Collections.sort(qfiles);
+        Map<Path, Main.BUCQ> parsed = new HashMap<>();
+        for (Path q : qfiles) parsed.put(q, Main.readBUCQ(q));
+        Main.Facts facts = new Main.Facts(Main.readFacts(csv, Main.PROJECT
+                ? Main.referencedAttrs(fds, dcs, new ArrayList<>(parsed.values()), qfiles) : null));
+        System.out.println("[INFO] CSV=" + base + " facts=" + facts.size() + " batch queries=" + qfiles.size());
+
+        // 1) 冲突超边与邻接表只建一次
+        HyperedgeSpool conflictHypers = Main.loadConflictHyperedges(csv, fdPath, dcPath, facts, fds, dcs);
+        try {
+            ConflictGraph conflicts = ConflictGraph.of(conflictHypers);
+            Map<Integer,List<Integer>> conflictAdj = adjacency(conflicts.pairs);
+            Map<Integer,List<Integer>> cliquesOf = conflicts.cliquesOf();
+
+            // 2) 每个查询：解超边、可达集、化简；能由 BlockCounter 或化简直接得出的当场算完
+            List<Query> queries = new ArrayList<>();
+            Set<Integer> shared = new HashSet<>();
+            for (Path q : qfiles) {
+                String name = q.getFileName().toString().replace(".query", "");
+                List<int[]> solutionHypers = solutionHyperedges(facts, q, parsed.get(q));
+                Set<Long> solutionEdges = Main.cliqueExpandToEdges(solutionHypers);
+                Set<Integer> solutionNodes = new HashSet<>();
+                for (int[] he : solutionHypers) for (int id : he) solutionNodes.add(id);
+
+                Set<Integer> reach = reachable(conflicts, conflictAdj, cliquesOf, solutionEdges, solutionNodes);
+                FactReduction red = FactReduction.reduce(reach, within(conflicts, conflictAdj, cliquesOf, reach), solutionEdges);
+                Query qr = new Query(name, reach, red, solutionHypers);
+                queries.add(qr);
+
+                if (red.forcedZero) qr.count = BigInteger.ZERO;
+                else if (red.nodes.isEmpty()) qr.count = BigInteger.ONE;
+                else if (Main.BLOCK && pureFD) qr.count = BlockCounter.count(red);
+                if (qr.count == null) shared.addAll(reach);
+            }
+
+            // 3) 共享分解：所有待 DP 查询的化简图之并（冲突部分由一次整体化简得到，与各查询的化简一致）
+            List<Query> pending = queries.stream().filter(x -> x.count == null).toList();
+            if (!pending.isEmpty()) {
+                FactReduction all = FactReduction.reduce(shared, within(conflicts, conflictAdj, cliquesOf, shared), Set.of());
+                Set<Long> unionEdges = new EdgeSet(all.conflicts.pairs);
+                Set<Long> solEdges = new EdgeSet();
+                Set<Integer> solSingles = new TreeSet<>();
+                for (Query x : pending) { solEdges.addAll(x.red.solutionEdges); solSingles.addAll(x.red.solutionSingletons); }
+                unionEdges.addAll(solEdges);
+
+                Path out = Path.of(Main.OUT_DIR);
+                Path sg = out.resolve(base + "_batch_solution_conflict_graph.gr");
+                Path std = out.resolve(base + "_batch_solution_result.td");
+                Path stw = out.resolve(base + "_batch_solution_treewidth.txt");
+                Main.writeGrUsingOriginalIds(unionEdges, all.conflicts.cliques, Set.of(), all.nodes, sg);
+
+                List<int[]> keptHypers = null;
+                if (!Main.TD_MODE.equals("exact")) {
+                    List<int[]> raw = new ArrayList<>();
+                    for (int[] he : conflictHypers) if (he.length > 0 && shared.contains(he[0])) raw.add(he);
+                    for (Query x : pending) raw.addAll(x.solutionHypers);
+                    keptHypers = Main.mapHyperedges(all, raw);
+                }
+                Main.decompose(all.nodes, unionEdges, all.conflicts.cliques, keptHypers, sg, std, stw);
+
+                var TD = GraphIO.loadTreeDecomposition(std);
+                GraphIO.assertEdgeCoverage(Main.toHypergraph(all.conflicts.pairs, all.conflicts.cliques, solEdges, solSingles), TD);
+                var Hc = Main.toHypergraph(all.conflicts.pairs, all.conflicts.cliques, Set.of(), Set.of());
+                var base0 = new Dynmaic_Programming_Based_for_CQA.Engine.Shared(Hc.conflictEdges, Hc.conflictCliques, TD);
+                System.out.println("[INFO] Shared decomposition: vertices=" + all.nodes.size()
+                        + " treewidth=" + Main.readTw(std) + " queries=" + pending.size());
+
+                // 4) 逐查询 DP：只换解边与顶点范围
+                for (Query x : pending) {
+                    BitSet universe = new BitSet();
+                    for (int v : x.red.nodes) universe.set(v - 1);
+                    var H = Main.toHypergraph(Set.of(), x.red.solutionEdges, x.red.solutionSingletons);
+                    x.count = new Dynmaic_Programming_Based_for_CQA.Engine(base0, universe, H.solutionEdges).numberFalsify();
+                }
+            }
+
+            Path outTxt = Path.of(Main.OUT_DIR, base + "_batch_numberfalsify.txt");
+            try (BufferedWriter bw = Files.newBufferedWriter(outTxt)) {
+                for (Query x : queries) {
+                    System.out.println("[CQA] NUMBERFALSIFY(" + base + "/" + x.name + ") = " + x.count);
+                    bw.write(x.name + " " + x.count); bw.newLine();
+                }
+            }
+        } finally {
+            conflictHypers.close(); // 删除溢写的 run 文件
+        }
+    }
+
+    /** 与 Main 相同的查询解析：先按 BUCQ，失败再按简单选择 */
+    private static List<int[]> solutionHyperedges(Main.Facts facts, Path q, Main.BUCQ bu) throws IOException {
+        if (!bu.isEmpty()) return Main.buildSolutionHyperedgesBUCQ(facts, bu);
+        List<int[]> out = new ArrayList<>();
+        for (int id : Main.queryIdx(facts, q)) out.add(new int[]{id + 1});
+        if (out.isEmpty()) System.err.println("[ERROR] " + q + " could not be parsed as BCQ/BUCQ nor as selection.");
+        return out;
+    }
+
+    private static Map<Integer,List<Integer>> adjacency(Set<Long> edges){
+        Map<Integer,List<Integer>> g = new HashMap<>();
+        for (long e : edges) {
+            int a = (int) (e >>> 32), b = (int) (e & 0xffffffffL);
+            g.computeIfAbsent(a, k -> new ArrayList<>()).add(b);
+            g.computeIfAbsent(b, k -> new ArrayList<>()).add(a);
+        }
+        return g;
+    }
+
+    /** Prop.10：冲突边、冲突团 ∪ 本查询解边上从解节点出发可达的点（只走到 U_q，不扫整张冲突图） */
+    private static Set<Integer> reachable(ConflictGraph conflicts, Map<Integer,List<Integer>> conflictAdj,
+                                          Map<Integer,List<Integer>> cliquesOf, Set<Long> solutionEdges, Set<Integer> solutionNodes){
+        Map<Integer,List<Integer>> solAdj = adjacency(solutionEdges);
+        Set<Integer> keep = new HashSet<>(solutionNodes);
+        Set<Integer> opened = new HashSet<>();
+        Deque<Integer> dq = new ArrayDeque<>(solutionNodes);
+        while (!dq.isEmpty()) {
+            int u = dq.pollFirst();
+            for (int v : conflictAdj.getOrDefault(u, List.of())) if (keep.add(v)) dq.addLast(v);
+            for (int v : solAdj.getOrDefault(u, List.of())) if (keep.add(v)) dq.addLast(v);
+            for (int ci : cliquesOf.getOrDefault(u, List.of())) {
+                if (opened.add(ci)) for (int v : conflicts.cliques.get(ci)) if (keep.add(v)) dq.addLast(v);
+            }
+        }
+        return keep;
+    }
+
+    /** nodes 内部的冲突边与团（nodes 对冲突边封闭时即所有关联的边与团） */
+    private static ConflictGraph within(ConflictGraph conflicts, Map<Integer,List<Integer>> conflictAdj,
+                                        Map<Integer,List<Integer>> cliquesOf, Set<Integer> nodes){
+        Set<Long> out = new EdgeSet();
+        Set<Integer> touched = new TreeSet<>();
+        for (int a : nodes) {
+            for (int b : conflictAdj.getOrDefault(a, List.of())) {
+                if (a < b && nodes.contains(b)) out.add(((long) a << 32) | b);
+            }
+            touched.addAll(cliquesOf.getOrDefault(a, List.of()));
+        }
+        List<int[]> cliques = new ArrayList<>();
+        for (int ci : touched) cliques.add(conflicts.cliques.get(ci));
+        return new ConflictGraph(out, cliques).within(nodes);
+    }
+}
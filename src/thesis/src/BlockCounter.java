@@ -0,0 +1,130 @@
+package thesis.src;
+
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * 纯 FD / 主键负载的快速路径：FactReduction 之后冲突图若是若干个互不相交的团（块），
+ * 每个 repair 恰好在每个块里选一个事实，不需要树分解。
+ *  - 解边只在块之间起作用；按解边把块连成簇，不同簇的计数相乘
+ *  - 单块簇：块大小减去被一元解边排除的事实数
+ *  - 多块簇：逐块回溯枚举（状态数超过预算则放弃，交回 ExactTW + Engine）
+ */
+final class BlockCounter {
+
+    /** 多块簇允许枚举的最大选择组合数，可用 -Dcqa.block.budget 调整 */
+    static final long BUDGET = Long.getLong("cqa.block.budget", 1_000_000L);
+
+    /** 化简后的图不是团的不交并，或某个簇超出预算时返回 null */
+    static BigInteger count(FactReduction red){
+        if(red.forcedZero) return BigInteger.ZERO;
+        Map<Integer,Integer> idx = index(red);
+        int n = idx.size();
+        List<List<Integer>> blockList = blocks(red, idx);
+        if(blockList == null) return null;
+        int[] blockOf = new int[n];
+        for(int bi=0;bi<blockList.size();bi++) for(int v: blockList.get(bi)) blockOf[v] = bi;
+
+        // 1) 一元解边排除事实；跨块的二元解边把块连成簇（块内的解边永远不会同时被选中）
+        boolean[] banned = new boolean[n];
+        for(int v: red.solutionSingletons) banned[idx.get(v)] = true;
+        List<List<Integer>> solAdj = new ArrayList<>();
+        for(int i=0;i<n;i++) solAdj.add(new ArrayList<>());
+        int nb = blockList.size();
+        int[] bu = new int[nb];
+        for(int i=0;i<nb;i++) bu[i]=i;
+        for(long e: red.solutionEdges){
+            int a = idx.get((int)(e>>>32)), b = idx.get((int)(e & 0xffffffffL));
+            if(blockOf[a] == blockOf[b]) continue;
+            solAdj.get(a).add(b); solAdj.get(b).add(a);
+            union(bu, blockOf[a], blockOf[b]);
+        }
+        Map<Integer,List<Integer>> clusters = new LinkedHashMap<>();
+        for(int i=0;i<nb;i++) clusters.computeIfAbsent(find(bu,i), k->new ArrayList<>()).add(i);
+
+        // 2) 簇内计数，簇间相乘
+        BigInteger total = BigInteger.ONE;
+        for(List<Integer> cl: clusters.values()){
+            List<int[]> allowed = new ArrayList<>();
+            long states = 1;
+            for(int bi: cl){
+                int[] a = blockList.get(bi).stream().filter(v -> !banned[v]).mapToInt(x->x).toArray();
+                if(a.length == 0) return BigInteger.ZERO;
+                allowed.add(a);
+                states = (states > BUDGET) ? states : states * a.length;
+            }
+            if(cl.size() == 1){ total = total.multiply(BigInteger.valueOf(allowed.get(0).length)); continue; }
+            if(states > BUDGET) return null;
+            boolean[] chosen = new boolean[n];
+            total = total.multiply(BigInteger.valueOf(enumerate(0, allowed, solAdj, chosen)));
+            if(total.signum() == 0) return total;
+        }
+        return total;
+    }
+
+    /** 化简后的 repair 总数 = 各块大小之积；不是团的不交并时返回 null（-Dcqa.measures 用） */
+    static BigInteger repairs(FactReduction red){
+        List<List<Integer>> blockList = blocks(red, index(red));
+        if(blockList == null) return null;
+        BigInteger total = BigInteger.ONE;
+        for(List<Integer> b: blockList) total = total.multiply(BigInteger.valueOf(b.size()));
+        return total;
+    }
+
+    /** red.nodes 升序后的下标 */
+    private static Map<Integer,Integer> index(FactReduction red){
+        List<Integer> vs = new ArrayList<>(new TreeSet<>(red.nodes));
+        Map<Integer,Integer> idx = new HashMap<>();
+        for(int i=0;i<vs.size();i++) idx.put(vs.get(i), i);
+        return idx;
+    }
+
+    /** 冲突连通分量（按下标）；某个分量不是团时返回 null */
+    private static List<List<Integer>> blocks(FactReduction red, Map<Integer,Integer> idx){
+        int n = idx.size();
+        // 冲突连通分量 = 候选块；分量恰为一个团，或（展开后的）边数等于 s(s-1)/2
+        ConflictGraph cg = red.conflicts;
+        int[] uf = new int[n];
+        for(int i=0;i<n;i++) uf[i]=i;
+        for(long e: cg.pairs) union(uf, idx.get((int)(e>>>32)), idx.get((int)(e & 0xffffffffL)));
+        for(int[] c: cg.cliques) for(int v: c) union(uf, idx.get(c[0]), idx.get(v));
+        Map<Integer,List<Integer>> blocks = new LinkedHashMap<>();
+        for(int i=0;i<n;i++) blocks.computeIfAbsent(find(uf,i), k->new ArrayList<>()).add(i);
+        Map<Integer,Integer> widest = new HashMap<>();
+        for(int[] c: cg.cliques) widest.merge(find(uf, idx.get(c[0])), c.length, Math::max);
+        Map<Integer,Long> edgeCnt = null;
+        List<List<Integer>> blockList = new ArrayList<>();
+        for(Map.Entry<Integer,List<Integer>> b: blocks.entrySet()){
+            long s = b.getValue().size();
+            if(widest.getOrDefault(b.getKey(), 0) < s){
+                if(edgeCnt == null){ // 团与二元边混在一个分量里时才展开计数
+                    Map<Integer,Long> cnt = edgeCnt = new HashMap<>();
+                    cg.forEachExpanded(e -> cnt.merge(find(uf, idx.get((int)(e>>>32))), 1L, Long::sum));
+                }
+                if(edgeCnt.getOrDefault(b.getKey(), 0L) != s*(s-1)/2) return null;
+            }
+            blockList.add(b.getValue());
+        }
+        return blockList;
+    }
+
+    private static long enumerate(int pos, List<int[]> allowed, List<List<Integer>> solAdj, boolean[] chosen){
+        if(pos == allowed.size()) return 1;
+        long c = 0;
+        for(int v: allowed.get(pos)){
+            boolean ok = true;
+            for(int w: solAdj.get(v)) if(chosen[w]){ ok = false; break; }
+            if(!ok) continue;
+            chosen[v] = true;
+            c += enumerate(pos+1, allowed, solAdj, chosen);
+            chosen[v] = false;
+        }
+        return c;
+    }
+
+    private static int find(int[] p, int x){
+        while(p[x]!=x){ p[x]=p[p[x]]; x=p[x]; }
+        return x;
+    }
+    private static void union(int[] p, int a, int b){ p[find(p,a)] = find(p,b); }
+}
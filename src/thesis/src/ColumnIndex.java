@@ -0,0 +1,84 @@
+package thesis.src;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 一张表的列索引：列 -> (值 -> 行位图)，行号 0 基。
+ * 每列在第一次被选择谓词用到时扫一遍建好并缓存（投影后多数列只参与 FD 分组，不必建）；
+ * 由 Main.Facts 与行表一起持有，常驻服务里同一张表的重复查询只做位图 and / or。
+ * 空值（缺列、投影掉的列）不进任何位图，与 cmp 对 null 恒为 false 一致。
+ * 另有按行的编码列（Coded，给 CompiledClause）：整表共用一个值字典，跨列的 = / != 直接比 int 码。
+ */
+final class ColumnIndex {
+
+    private final List<Main.Fact> facts;
+    private final Map<String, Map<String, RowBitmap>> columns = new ConcurrentHashMap<>();
+    private final Map<String, Coded> coded = new ConcurrentHashMap<>();
+    private final Map<String, Integer> dict = new HashMap<>();   // 值 -> 码（整表共用，锁自身）
+
+    /** 一列按行展开：code = 字典码（空值 -1），num / isNum = Double.parseDouble 的结果（cmpNum 的预解析） */
+    static final class Coded {
+        final String[] val;
+        final int[] code;
+        final double[] num;
+        final boolean[] isNum;
+        Coded(int n){ val = new String[n]; code = new int[n]; num = new double[n]; isNum = new boolean[n]; }
+    }
+
+    ColumnIndex(List<Main.Fact> facts){ this.facts = facts; }
+
+    private Map<String, RowBitmap> column(String attr){
+        return columns.computeIfAbsent(attr, a -> {
+            Map<String, RowBitmap> byValue = new HashMap<>();
+            for (int i = 0; i < facts.size(); i++) {
+                String v = facts.get(i).get(a);
+                if (v != null) byValue.computeIfAbsent(v, k -> new RowBitmap()).add(i);
+            }
+            return byValue;
+        });
+    }
+
+    Coded coded(String attr){
+        return coded.computeIfAbsent(attr, a -> {
+            Coded c = new Coded(facts.size());
+            synchronized (dict) {
+                for (int i = 0; i < facts.size(); i++) {
+                    String v = facts.get(i).get(a);
+                    c.val[i] = v;
+                    c.code[i] = (v == null) ? -1 : dict.computeIfAbsent(v, k -> dict.size());
+                    if (v != null) {
+                        try { c.num[i] = Double.parseDouble(v); c.isNum[i] = true; }
+                        catch (NumberFormatException e) { /* 按字符串比较 */ }
+                    }
+                }
+            }
+            return c;
+        });
+    }
+
+    /** 常量的字典码；表里没有这个值时为 -2（不等于任何行的码，也不等于空值的 -1） */
+    int code(String v){
+        synchronized (dict) { return dict.getOrDefault(v, -2); }
+    }
+
+    /** attr op constVal 成立的行（语义同 Main.cmp）；= 直接查表，其余运算按该列的不同取值逐个比较 */
+    RowBitmap select(String attr, String op, String constVal){
+        Map<String, RowBitmap> col = column(attr);
+        if (op.equals("=") || op.equals("==")) return constVal == null ? RowBitmap.empty() : col.getOrDefault(constVal, RowBitmap.empty());
+        List<RowBitmap> hit = new ArrayList<>();
+        for (Map.Entry<String, RowBitmap> e : col.entrySet()) if (Main.cmp(e.getKey(), op, constVal)) hit.add(e.getValue());
+        return RowBitmap.orAll(hit);
+    }
+
+    /** attr 的不同非空值数（DcSearch 估选择度用） */
+    int distinct(String attr){ return column(attr).size(); }
+
+    /** attr 取 vals 之一的行 */
+    RowBitmap in(String attr, Collection<String> vals){
+        Map<String, RowBitmap> col = column(attr);
+        List<RowBitmap> hit = new ArrayList<>();
+        for (String v : vals) { RowBitmap b = col.get(v); if (b != null) hit.add(b); }
+        return RowBitmap.orAll(hit);
+    }
+}
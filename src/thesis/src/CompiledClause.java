@@ -0,0 +1,121 @@
+package thesis.src;
+
+import java.util.*;
+import java.util.function.IntPredicate;
+
+/**
+ * DC 子句 / BCQ 的原子编译成按行号求值的谓词（语义同 Main.cmp）：
+ *  - = / != 比 ColumnIndex 的字典码（int），常量先查成码
+ *  - < > <= >= 比预解析的 double；两侧不都是数时按字符串比较（与 cmpNum 的回退一致）
+ *  - 空值使任何原子为假，未知运算符恒假
+ * 变量按 vars 的顺序编号，rows[slot] 是该变量取的行（facts 的 0 基下标）；
+ * 每个原子挂在它两侧变量中编号较大者上，回溯赋到第 pos 个变量时只检查 testAt(pos)。
+ */
+final class CompiledClause {
+
+    interface Pred { boolean test(int[] rows); }
+
+    private final Pred[] all;
+    private final Pred[][] byPos;
+
+    private CompiledClause(Pred[] all, Pred[][] byPos){ this.all = all; this.byPos = byPos; }
+
+    static CompiledClause compile(Main.Facts facts, List<Main.DCAtom> atoms, List<String> vars){
+        ColumnIndex ci = facts.index;
+        List<Pred> all = new ArrayList<>();
+        List<List<Pred>> byPos = new ArrayList<>();
+        for (int i = 0; i < vars.size(); i++) byPos.add(new ArrayList<>());
+        for (Main.DCAtom a : atoms) {
+            int l = vars.indexOf(a.lVar);
+            int r = a.isConst ? -1 : vars.indexOf(a.rVar);
+            Pred p;
+            if (l < 0 || (!a.isConst && r < 0)) p = rows -> false;        // 变量不在 vars 里：永远赋不上值
+            else if (a.isConst) p = constAtom(ci, ci.coded(a.lAttr), l, a.op, a.constVal);
+            else p = varAtom(ci.coded(a.lAttr), l, a.op, ci.coded(a.rAttr), r);
+            all.add(p);
+            byPos.get(Math.max(0, Math.max(l, r))).add(p);
+        }
+        Pred[][] bp = new Pred[byPos.size()][];
+        for (int i = 0; i < bp.length; i++) bp[i] = byPos.get(i).toArray(new Pred[0]);
+        return new CompiledClause(all.toArray(new Pred[0]), bp);
+    }
+
+    /** 全部原子成立（完整赋值） */
+    boolean test(int[] rows){
+        for (Pred p : all) if (!p.test(rows)) return false;
+        return true;
+    }
+
+    /** 赋完第 pos 个变量后新变得可求值的原子都成立 */
+    boolean testAt(int pos, int[] rows){
+        for (Pred p : byPos[pos]) if (!p.test(rows)) return false;
+        return true;
+    }
+
+    /* ---------- 单个原子 ---------- */
+
+    private static Pred constAtom(ColumnIndex ci, ColumnIndex.Coded c, int l, String op, String k){
+        if (k == null) return rows -> false;
+        int[] code = c.code;
+        switch (op) {
+            case "=": case "==": {
+                int kc = ci.code(k);
+                return kc < 0 ? rows -> false : rows -> code[rows[l]] == kc;
+            }
+            case "!=": {
+                int kc = ci.code(k);
+                return rows -> { int x = code[rows[l]]; return x >= 0 && x != kc; };
+            }
+            default: {
+                IntPredicate ok = order(op);
+                if (ok == null) return rows -> false;
+                boolean kNum;
+                double kv = 0;
+                try { kv = Double.parseDouble(k); kNum = true; } catch (NumberFormatException e) { kNum = false; }
+                double kd = kv;
+                String[] val = c.val;
+                double[] num = c.num;
+                boolean[] isNum = c.isNum;
+                if (!kNum) return rows -> { String v = val[rows[l]]; return v != null && ok.test(v.compareTo(k)); };
+                return rows -> {
+                    int i = rows[l];
+                    if (isNum[i]) return ok.test(Double.compare(num[i], kd));
+                    return val[i] != null && ok.test(val[i].compareTo(k));
+                };
+            }
+        }
+    }
+
+    private static Pred varAtom(ColumnIndex.Coded a, int l, String op, ColumnIndex.Coded b, int r){
+        int[] ca = a.code, cb = b.code;
+        switch (op) {
+            case "=": case "==":
+                return rows -> { int x = ca[rows[l]]; return x >= 0 && x == cb[rows[r]]; };
+            case "!=":
+                return rows -> { int x = ca[rows[l]], y = cb[rows[r]]; return x >= 0 && y >= 0 && x != y; };
+            default: {
+                IntPredicate ok = order(op);
+                if (ok == null) return rows -> false;
+                String[] va = a.val, vb = b.val;
+                double[] na = a.num, nb = b.num;
+                boolean[] ia = a.isNum, ib = b.isNum;
+                return rows -> {
+                    int i = rows[l], j = rows[r];
+                    if (ia[i] && ib[j]) return ok.test(Double.compare(na[i], nb[j]));
+                    return va[i] != null && vb[j] != null && ok.test(va[i].compareTo(vb[j]));
+                };
+            }
+        }
+    }
+
+    /** 比较结果（compare 的符号）是否满足 op；编译期选好，求值时不再看运算符 */
+    private static IntPredicate order(String op){
+        return switch (op) {
+            case "<"  -> c -> c < 0;
+            case ">"  -> c -> c > 0;
+            case "<=" -> c -> c <= 0;
+            case ">=" -> c -> c >= 0;
+            default   -> null;
+        };
+    }
+}
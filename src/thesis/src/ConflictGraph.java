@@ -0,0 +1,123 @@
+package thesis.src;
+
+import java.util.*;
+import java.util.function.LongConsumer;
+
+/**
+ * 冲突图（1 基原始行号）：二元边 + 隐式团。
+ * 一个 FD 同键组里两两冲突的 m 个事实（或任一 ≥ CLIQUE_MIN 元的冲突超边，DP 对它本来就按团处理）
+ * 存成一个升序 int[]，而不是 m(m-1)/2 条 long 边（二元边本身放在 EdgeSet 里，不装箱）；Prop.10、化简、块计数、.gr / 分解输入与 Engine 的袋内检查都直接吃团。
+ * 只有 ExactTW 需要显式的两两边（见 Main.decompose），-Dcqa.clique.expand=true 时全部展开（旧行为）。
+ */
+final class ConflictGraph {
+
+    /** 至少这么多点的冲突超边按团保留 */
+    static final int CLIQUE_MIN = Boolean.getBoolean("cqa.clique.expand")
+            ? Integer.MAX_VALUE : Math.max(3, Integer.getInteger("cqa.clique.min", 3));
+
+    final Set<Long> pairs;
+    final List<int[]> cliques;
+
+    ConflictGraph(Set<Long> pairs, List<int[]> cliques){ this.pairs = pairs; this.cliques = cliques; }
+
+    /** 小超边团化成二元边，≥ CLIQUE_MIN 的整条作为团（可直接消费 HyperedgeSpool 流） */
+    static ConflictGraph of(Iterable<int[]> hyperedges){
+        List<int[]> cliques = new ArrayList<>();
+        Set<Long> pairs = new EdgeSet();
+        for(int[] he: hyperedges){
+            if(he.length >= CLIQUE_MIN) cliques.add(he);
+            else Main.cliqueExpandInto(pairs, List.<int[]>of(he));
+        }
+        return new ConflictGraph(pairs, cliques);
+    }
+
+    boolean isEmpty(){ return pairs.isEmpty() && cliques.isEmpty(); }
+
+    Set<Integer> nodes(){
+        Set<Integer> V = Main.nodesFromEdges(pairs);
+        for(int[] c: cliques) for(int v: c) V.add(v);
+        return V;
+    }
+
+    /** nodes 内的部分；团与 nodes 相交后不足 CLIQUE_MIN 个点的展开成二元边 */
+    ConflictGraph within(Set<Integer> nodes){
+        Set<Long> p = new EdgeSet();
+        for(long e: pairs) if(nodes.contains((int)(e>>>32)) && nodes.contains((int)(e & 0xffffffffL))) p.add(e);
+        List<int[]> c = new ArrayList<>();
+        for(int[] k: cliques){
+            int[] m = Arrays.stream(k).filter(nodes::contains).toArray();
+            if(m.length == k.length || m.length >= CLIQUE_MIN) c.add(m);
+            else if(m.length >= 2) Main.cliqueExpandInto(p, List.<int[]>of(m));
+        }
+        return new ConflictGraph(p, c);
+    }
+
+    /**
+     * 逐条给出全部展开后的两两边，不物化展开的边集（只在确实需要显式图时调用）：
+     * 先是 pairs，再是团内的对；一对只在第一个同时含两点的团里给出，且跳过已在 pairs 里的。
+     */
+    void forEachExpanded(LongConsumer out){
+        for(long e: pairs) out.accept(e);
+        Map<Integer,List<Integer>> of = cliquesOf();
+        for(int ci=0;ci<cliques.size();ci++){
+            int[] c = cliques.get(ci);
+            for(int i=0;i<c.length;i++){
+                for(int j=i+1;j<c.length;j++){
+                    int a=Math.min(c[i], c[j]), b=Math.max(c[i], c[j]);
+                    long key = ((long)a<<32) | b;
+                    if(firstShared(of.get(a), of.get(b)) == ci && !pairs.contains(key)) out.accept(key);
+                }
+            }
+        }
+    }
+
+    /** 两个升序下标表的最小公共元素 */
+    private static int firstShared(List<Integer> x, List<Integer> y){
+        for(int i=0, j=0; i<x.size() && j<y.size(); ){
+            int c = Integer.compare(x.get(i), y.get(j));
+            if(c == 0) return x.get(i);
+            if(c < 0) i++; else j++;
+        }
+        return -1;
+    }
+
+    /** 点 -> 所在团下标 */
+    Map<Integer,List<Integer>> cliquesOf(){
+        Map<Integer,List<Integer>> of = new HashMap<>();
+        for(int i=0;i<cliques.size();i++) for(int v: cliques.get(i)) of.computeIfAbsent(v, k->new ArrayList<>()).add(i);
+        return of;
+    }
+
+    /**
+     * 从 start 出发沿冲突边、冲突团与 extra（如解边）可达的点。
+     * 每个团只展开一次，所以大团的代价是 O(m) 而不是 O(m²)。
+     */
+    Set<Integer> reach(Set<Integer> start, Set<Long> extra){
+        Map<Integer,List<Integer>> adj = new HashMap<>();
+        for(Set<Long> E: List.of(pairs, extra)) for(long e: E){
+            int a=(int)(e>>>32), b=(int)(e & 0xffffffffL);
+            adj.computeIfAbsent(a, k->new ArrayList<>()).add(b);
+            adj.computeIfAbsent(b, k->new ArrayList<>()).add(a);
+        }
+        Map<Integer,List<Integer>> of = cliquesOf();
+        boolean[] opened = new boolean[cliques.size()];
+        Set<Integer> keep = new HashSet<>(start);
+        Deque<Integer> dq = new ArrayDeque<>(start);
+        while(!dq.isEmpty()){
+            int u = dq.pollFirst();
+            for(int v: adj.getOrDefault(u, List.of())) if(keep.add(v)) dq.addLast(v);
+            for(int ci: of.getOrDefault(u, List.of())){
+                if(opened[ci]) continue;
+                opened[ci] = true;
+                for(int v: cliques.get(ci)) if(keep.add(v)) dq.addLast(v);
+            }
+        }
+        return keep;
+    }
+
+    String summary(){
+        long implicit = 0;
+        for(int[] c: cliques) implicit += (long) c.length * (c.length - 1) / 2;
+        return pairs.size() + " edges + " + cliques.size() + " cliques (" + implicit + " implicit edges)";
+    }
+}
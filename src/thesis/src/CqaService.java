@@ -0,0 +1,201 @@
+package thesis.src;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 常驻服务模式：启动时读入 csv_inputs/ 下所有表及其 .fd/.dc，冲突超边常驻内存，
+ * 之后通过本机 HTTP 接口接收 BUCQ 查询并返回 NUMBERFALSIFY，不再为每个查询起 JVM、重读 CSV。
+ *
+ *   java thesis.src.CqaService [port]          （默认 8765，只监听 127.0.0.1）
+ *   POST /count?table=students   请求体为 .query 语法的 BUCQ   -> 计数
+ *   POST /reload?table=students  重新读取该表的 CSV / .fd / .dc -> facts 数
+ *   GET  /tables                 表名与 facts 数
+ *
+ * 每个请求跑在一个虚拟线程上；查询持表的读锁，reload 持写锁。
+ * 树分解按联合图常驻在表的 TdMemo 中（reload 时清空）；未命中时才经 ArtifactCache 或 ExactTW 求出。
+ */
+public class CqaService {
+
+    static final int DEFAULT_PORT = 8765;
+
+    /** 一张常驻的表：facts、约束与冲突超边（reload 时整体替换） */
+    static final class Table {
+        final String name;
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        Main.Facts facts;
+        List<Main.FD> fds;
+        List<Main.DCClause> dcs;
+        HyperedgeSpool conflictHypers;
+        ConflictGraph conflicts;
+        final TdMemo tds = new TdMemo();
+        Table(String name){ this.name = name; }
+    }
+
+    private final Map<String, Table> tables = new ConcurrentHashMap<>();
+    private final AtomicLong requestSeq = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        CqaService svc = new CqaService();
+        svc.loadAll();
+        HttpServer server = svc.start(port);
+        System.out.println("[INFO] CQA service listening on http://127.0.0.1:" + server.getAddress().getPort());
+    }
+
+    void loadAll() throws IOException {
+        File[] csvFiles = new File(Main.CSV_DIR).listFiles((_, n) -> n.toLowerCase().endsWith(".csv"));
+        if (csvFiles == null) return;
+        for (File csv : csvFiles) {
+            Table t = new Table(csv.getName().replace(".csv", ""));
+            load(t);
+            tables.put(t.name, t);
+        }
+    }
+
+    /** 读入（或重读）一张表；调用方负责持写锁或保证表尚未发布 */
+    private static void load(Table t) throws IOException {
+        Path csv = Path.of(Main.CSV_DIR, t.name + ".csv");
+        Path fdPath = Path.of(Main.FD_DIR, t.name + ".fd");
+        Path dcPath = Path.of(Main.DC_DIR, t.name + ".dc");
+        Main.Facts facts = new Main.Facts(Main.readFacts(csv));
+        List<Main.FD> fds = Main.readFD(fdPath);
+        List<Main.DCClause> dcs = Main.readDC(dcPath);
+        HyperedgeSpool hypers = Main.loadConflictHyperedges(csv, fdPath, dcPath, facts, fds, dcs);
+        ConflictGraph conflicts = ConflictGraph.of(hypers); // 首次遍历后 spool 只读，可被并发查询共享
+
+        if (t.conflictHypers != null) t.conflictHypers.close();
+        t.facts = facts; t.fds = fds; t.dcs = dcs;
+        t.conflictHypers = hypers; t.conflicts = conflicts;
+        t.tds.clear(); // 旧分解属于旧的冲突图
+        System.out.println("[INFO] loaded " + t.name + ": facts=" + facts.size() + " conflicts=" + conflicts.summary());
+    }
+
+    HttpServer start(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/count", ex -> handle(ex, () -> { method(ex, "POST"); return count(table(ex), body(ex)); }));
+        server.createContext("/reload", ex -> handle(ex, () -> { method(ex, "POST"); return reload(table(ex)); }));
+        server.createContext("/tables", ex -> handle(ex, () -> { method(ex, "GET"); return listTables(); }));
+        server.start();
+        return server;
+    }
+
+    /** 对一张表计数：只读访问常驻数据，中间产物写到独立的临时目录，结束后删除 */
+    String count(Table t, String query) throws Exception {
+        Main.BUCQ bu = Main.parseBUCQ(Arrays.asList(query.split("\\R")));
+        if (bu.isEmpty()) throw new IllegalArgumentException("query could not be parsed as BCQ/BUCQ");
+
+        t.lock.readLock().lock();
+        Path work = Path.of(Main.OUT_DIR, "service", t.name + "-" + requestSeq.incrementAndGet());
+        try {
+            List<int[]> solutionHypers = Main.buildSolutionHyperedgesBUCQ(t.facts, bu);
+            Set<Integer> solutionNodes = new HashSet<>();
+            for (int[] he : solutionHypers) for (int id : he) solutionNodes.add(id);
+            Set<Long> solutionEdges = Main.cliqueExpandToEdges(solutionHypers);
+
+            Files.createDirectories(work);
+            Main.CountResult cr = Main.countFalsify(work, t.name, t.dcs.isEmpty(),
+                    t.conflictHypers, t.conflicts, solutionHypers, solutionNodes, solutionEdges, null, t.tds);
+            if (cr.falsify == null) throw new IllegalStateException("counting failed: " + cr.error);
+            return cr.approx == null ? cr.falsify.toString() : cr.falsify + " ~ " + cr.approx;
+        } finally {
+            t.lock.readLock().unlock();
+            deleteTree(work);
+        }
+    }
+
+    String reload(Table t) throws IOException {
+        t.lock.writeLock().lock();
+        try {
+            load(t);
+            return String.valueOf(t.facts.size());
+        } finally {
+            t.lock.writeLock().unlock();
+        }
+    }
+
+    String listTables(){
+        StringBuilder sb = new StringBuilder();
+        for (Table t : new TreeMap<>(tables).values()) {
+            t.lock.readLock().lock();
+            try { sb.append(t.name).append(' ').append(t.facts.size()).append('\n'); }
+            finally { t.lock.readLock().unlock(); }
+        }
+        return sb.toString();
+    }
+
+    /* ---------- HTTP 细节 ---------- */
+
+    interface Action { String run() throws Exception; }
+
+    private static final class HttpError extends Exception {
+        private static final long serialVersionUID = 1L;
+        final int status;
+        HttpError(int status, String msg){ super(msg); this.status = status; }
+    }
+
+    private static void handle(HttpExchange ex, Action action) throws IOException {
+        int status = 200;
+        String out;
+        try {
+            out = action.run();
+        } catch (HttpError e) {
+            status = e.status; out = e.getMessage();
+        } catch (IllegalArgumentException e) {
+            status = 400; out = e.getMessage();
+        } catch (Exception e) {
+            status = 500; out = String.valueOf(e.getMessage());
+        }
+        byte[] b = (out + "\n").getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        ex.sendResponseHeaders(status, b.length);
+        try (OutputStream os = ex.getResponseBody()) { os.write(b); }
+    }
+
+    /** 方法不符时 405，并在 Allow 头里给出允许的方法 */
+    private static void method(HttpExchange ex, String allowed) throws HttpError {
+        if (ex.getRequestMethod().equals(allowed)) return;
+        ex.getResponseHeaders().set("Allow", allowed);
+        throw new HttpError(405, "use " + allowed);
+    }
+
+    private Table table(HttpExchange ex) throws HttpError {
+        String q = ex.getRequestURI().getRawQuery();
+        if (q != null) {
+            for (String kv : q.split("&")) {
+                int i = kv.indexOf('=');
+                if (i > 0 && kv.substring(0, i).equals("table")) {
+                    Table t = tables.get(URLDecoder.decode(kv.substring(i + 1), StandardCharsets.UTF_8));
+                    if (t == null) throw new HttpError(404, "unknown table");
+                    return t;
+                }
+            }
+        }
+        throw new HttpError(400, "missing ?table=");
+    }
+
+    private static String body(HttpExchange ex) throws IOException {
+        try (InputStream in = ex.getRequestBody()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void deleteTree(Path dir){
+        if (!Files.exists(dir)) return;
+        try (var walk = Files.walk(dir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException ignored) { }
+    }
+}
@@ -0,0 +1,192 @@
+package thesis.src;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * DC 子句的违反元组搜索（代替“buildComb 取满 k 元组合后再整句求值”）：
+ *  - 变量顺序：候选最少的变量先绑定，之后每步取 候选数 × 与已绑定变量之间原子的估计选择度 最小的；
+ *  - 原子：按重排后的变量编译进 CompiledClause，同一位置上选择度高的先测；每绑定一个变量立即检查
+ *    新变得可求值的原子，不成立就剪掉整棵子树（testAt 短路）；
+ *  - 角色：k 个变量取两两不同的行，所有角色分配都查（t1.Score > t2.Score 两种先后都算）；
+ *    交换 ti、tj 后子句不变（规范化的原子集合相同，如类 FD 的 DC）时只取 row(ti) < row(tj)，
+ *    同一组行只生成一次。有序约束在升序候选数组上二分出区间，不逐个比较。
+ * 选择度：常量原子已体现在候选数里；= 取 1/max(两列不同值数)，!= 取 1 - 1/max，其余比较取 1/2。
+ */
+final class DcSearch {
+
+    /** true：旧语义，只查声明顺序 row(t1) < row(t2) < … 这一种角色分配 */
+    static final boolean ASCENDING = Boolean.getBoolean("cqa.dc.ascending");
+
+    private final CompiledClause cc;
+    private final int[][] cand;      // 按重排后的位置
+    /** after[p] / before[p]：位置 p 的行须大于 / 小于这些更早位置上的行 */
+    private final int[][] after, before;
+    private final int[] rows;
+    private final Consumer<int[]> out;
+
+    private DcSearch(CompiledClause cc, int[][] cand, int[][] after, int[][] before, Consumer<int[]> out){
+        this.cc = cc; this.cand = cand; this.after = after; this.before = before; this.out = out;
+        this.rows = new int[cand.length];
+    }
+
+    /**
+     * 子句 c 的每组违反行（1 基、升序）交给 out；domain = 参与的行（0 基、升序），null 为全部。
+     */
+    static void violations(Main.Facts facts, Main.DCClause c, int[] domain, Consumer<int[]> out){
+        int k = c.vars.size();
+        if (k == 0) return;
+        ColumnIndex ci = facts.index;
+        int[] all = domain;
+        if (all == null) { all = new int[facts.size()]; for (int i = 0; i < all.length; i++) all[i] = i; }
+        int[][] cand0 = new int[k][];
+        for (int t = 0; t < k; t++) {
+            int[] rows = Main.constCandidates(facts, c.atoms, c.vars.get(t));
+            cand0[t] = rows == null ? all : domain == null ? rows : intersect(rows, domain);
+            if (cand0[t].length == 0) return;
+        }
+
+        int[] order = order(ci, c, cand0);
+        int[] posOf = new int[k];
+        List<String> vars = new ArrayList<>(k);
+        int[][] cand = new int[k][];
+        for (int p = 0; p < k; p++) {
+            posOf[order[p]] = p;
+            vars.add(c.vars.get(order[p]));
+            cand[p] = cand0[order[p]];
+        }
+        List<Main.DCAtom> atoms = new ArrayList<>(c.atoms);
+        atoms.sort(Comparator.comparingDouble(a -> selectivity(ci, a)));   // 稳定排序：同选择度保持文件顺序
+
+        // 角色约束：对称（或 ASCENDING）的变量对要求按声明顺序升序，落到重排后的位置上
+        boolean[][] sym = ASCENDING ? null : symmetricPairs(c);
+        List<List<Integer>> aft = new ArrayList<>(), bef = new ArrayList<>();
+        for (int p = 0; p < k; p++) { aft.add(new ArrayList<>()); bef.add(new ArrayList<>()); }
+        for (int i = 0; i < k; i++) for (int j = i + 1; j < k; j++) {
+            if (sym != null && !sym[i][j]) continue;
+            int pi = posOf[i], pj = posOf[j];                     // row(ti) < row(tj)
+            if (pi < pj) aft.get(pj).add(pi); else bef.get(pi).add(pj);
+        }
+        int[][] after = new int[k][], before = new int[k][];
+        for (int p = 0; p < k; p++) {
+            after[p] = aft.get(p).stream().mapToInt(Integer::intValue).toArray();
+            before[p] = bef.get(p).stream().mapToInt(Integer::intValue).toArray();
+        }
+        new DcSearch(CompiledClause.compile(facts, atoms, vars), cand, after, before, out).search(0);
+    }
+
+    private void search(int p){
+        if (p == rows.length) {
+            int[] ids = new int[rows.length];
+            for (int t = 0; t < ids.length; t++) ids[t] = rows[t] + 1;
+            Arrays.sort(ids);
+            out.accept(ids);
+            return;
+        }
+        int lo = 0, hi = Integer.MAX_VALUE;                     // 本位置的行 ∈ [lo, hi)
+        for (int q : after[p]) lo = Math.max(lo, rows[q] + 1);
+        for (int q : before[p]) hi = Math.min(hi, rows[q]);
+        int[] cs = cand[p];
+        int from = lowerBound(cs, lo);
+        next:
+        for (int i = from; i < cs.length && cs[i] < hi; i++) {
+            int r = cs[i];
+            for (int q = 0; q < p; q++) if (rows[q] == r) continue next;   // 两两不同的行
+            rows[p] = r;
+            if (cc.testAt(p, rows)) search(p + 1);
+        }
+    }
+
+    /* ---------- 计划 ---------- */
+
+    /** 变量的绑定顺序（原下标） */
+    private static int[] order(ColumnIndex ci, Main.DCClause c, int[][] cand){
+        int k = c.vars.size();
+        int[] order = new int[k];
+        boolean[] bound = new boolean[k];
+        for (int p = 0; p < k; p++) {
+            int best = -1;
+            double bestEst = Double.MAX_VALUE;
+            for (int v = 0; v < k; v++) {
+                if (bound[v]) continue;
+                double est = cand[v].length;
+                for (Main.DCAtom a : c.atoms) {
+                    if (a.isConst) continue;
+                    int l = c.vars.indexOf(a.lVar), r = c.vars.indexOf(a.rVar);
+                    boolean touches = (l == v && (r == v || (r >= 0 && bound[r]))) || (r == v && l >= 0 && bound[l]);
+                    if (touches) est *= selectivity(ci, a);
+                }
+                if (est < bestEst) { bestEst = est; best = v; }
+            }
+            order[p] = best;
+            bound[best] = true;
+        }
+        return order;
+    }
+
+    private static double selectivity(ColumnIndex ci, Main.DCAtom a){
+        if (a.isConst) return 1;
+        switch (a.op) {
+            case "=": case "==": return 1.0 / Math.max(1, Math.max(ci.distinct(a.lAttr), ci.distinct(a.rAttr)));
+            case "!=": return 1 - 1.0 / Math.max(2, Math.max(ci.distinct(a.lAttr), ci.distinct(a.rAttr)));
+            default: return 0.5;
+        }
+    }
+
+    /* ---------- 对称 ---------- */
+
+    /** sym[i][j]：交换第 i、j 个变量后子句的原子集合不变 */
+    private static boolean[][] symmetricPairs(Main.DCClause c){
+        int k = c.vars.size();
+        boolean[][] sym = new boolean[k][k];
+        Set<String> base = canonical(c, null);
+        for (int i = 0; i < k; i++) for (int j = i + 1; j < k; j++) {
+            Map<String, String> swap = Map.of(c.vars.get(i), c.vars.get(j), c.vars.get(j), c.vars.get(i));
+            sym[i][j] = sym[j][i] = base.equals(canonical(c, swap));
+        }
+        return sym;
+    }
+
+    /** 原子的规范形（变量按 rename 改名；= 与 ==、两侧互换后的翻转运算符视为同一原子） */
+    private static Set<String> canonical(Main.DCClause c, Map<String, String> rename){
+        Set<String> out = new HashSet<>();
+        for (Main.DCAtom a : c.atoms) {
+            String l = rename == null ? a.lVar : rename.getOrDefault(a.lVar, a.lVar);
+            String op = a.op.equals("==") ? "=" : a.op;
+            if (a.isConst) { out.add(l + "." + a.lAttr + " " + op + " '" + a.constVal); continue; }
+            String r = rename == null ? a.rVar : rename.getOrDefault(a.rVar, a.rVar);
+            String x = l + "." + a.lAttr + " " + op + " " + r + "." + a.rAttr;
+            String y = r + "." + a.rAttr + " " + flip(op) + " " + l + "." + a.lAttr;
+            out.add(x.compareTo(y) <= 0 ? x : y);
+        }
+        return out;
+    }
+
+    private static String flip(String op){
+        return switch (op) {
+            case "<" -> ">";
+            case ">" -> "<";
+            case "<=" -> ">=";
+            case ">=" -> "<=";
+            default -> op;
+        };
+    }
+
+    /* ---------- 数组 ---------- */
+
+    private static int lowerBound(int[] a, int x){
+        int i = Arrays.binarySearch(a, x);
+        return i < 0 ? -i - 1 : i;
+    }
+
+    private static int[] intersect(int[] a, int[] b){
+        int[] out = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else { out[n++] = a[i]; i++; j++; }
+        }
+        return Arrays.copyOf(out, n);
+    }
+}
@@ -0,0 +1,117 @@
+package thesis.src;
+
+import java.math.BigInteger;
+import java.util.*;
+
+import thesis.src.Dynmaic_Programming_Based_for_CQA.*;
+
+/**
+ * NUMBERFALSIFY 的随机对拍：小随机超图（二元 / 三元冲突边、隐式冲突团、一到三元解边）上，
+ * Engine.numberFalsify、allRepairs 与 SemiringDp.measures 对比穷举全部极大独立集的结果。
+ * 分解用 HypergraphTD，不依赖 ExactTW。
+ * 用法：java thesis.src.DpBruteCheck [seed] [iters] [maxN]；子袋合并的两条路径都要覆盖时
+ * 再加 -Dcqa.dp.convMin=1 跑一遍（默认只有交集上待支配点 ≥ 4 时才走 zeta/Möbius）。
+ * 不一致时打印该实例并以状态 1 退出。
+ */
+final class DpBruteCheck {
+
+    public static void main(String[] args){
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+        int iters = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+        int maxN = args.length > 2 ? Integer.parseInt(args[2]) : 12;
+        Random rnd = new Random(seed);
+        for (int it = 0; it < iters; it++) {
+            int n = 2 + rnd.nextInt(Math.max(1, maxN - 1));
+            List<int[]> ec = new ArrayList<>(), ek = new ArrayList<>(), es = new ArrayList<>();
+            for (int i = rnd.nextInt(2 * n); i > 0; i--) ec.add(randomSet(rnd, n, rnd.nextInt(4) == 0 ? 3 : 2));
+            for (int i = rnd.nextInt(3); i > 0; i--) ek.add(randomSet(rnd, n, 3 + rnd.nextInt(3)));
+            for (int i = 1 + rnd.nextInt(4); i > 0; i--) es.add(randomSet(rnd, n, 1 + rnd.nextInt(3)));
+
+            long[] exp = brute(n, ec, ek, es);   // {总数, 证伪数}
+            var H = new Hypergraph(n, bitsets(ec), bitsets(ek), bitsets(es));
+            var T = decompose(n, ec, ek, es);
+            GraphIO.assertEdgeCoverage(H, T);
+            var eng = new Engine(H, T);
+            BigInteger falsify = eng.numberFalsify(), total = eng.allRepairs().numberFalsify();
+            var m = SemiringDp.measures(H, T, null);
+            if (falsify.longValue() != exp[1] || total.longValue() != exp[0]
+                    || m.falsify.longValue() != exp[1] || m.total.longValue() != exp[0]) {
+                System.out.println("MISMATCH it=" + it + " n=" + n
+                        + " ec=" + str(ec) + " cliques=" + str(ek) + " es=" + str(es)
+                        + " expected total=" + exp[0] + " falsify=" + exp[1]
+                        + " engine total=" + total + " falsify=" + falsify
+                        + " semiring total=" + m.total + " falsify=" + m.falsify);
+                System.exit(1);
+            }
+        }
+        System.out.println("OK " + iters);
+    }
+
+    /** 0 基的 k 个不同点（k 不超过 n），升序 */
+    private static int[] randomSet(Random rnd, int n, int k){
+        BitSet b = new BitSet();
+        while (b.cardinality() < Math.min(k, n)) b.set(rnd.nextInt(n));
+        return b.stream().toArray();
+    }
+
+    private static List<BitSet> bitsets(List<int[]> sets){
+        List<BitSet> out = new ArrayList<>();
+        for (int[] s : sets) out.add(Dynmaic_Programming_Based_for_CQA.edge(s));
+        return out;
+    }
+
+    /** HypergraphTD 给出的分解（1 基）转成 0 基的 TreeDecomposition；多棵树挂到第一棵的根下 */
+    private static TreeDecomposition decompose(int n, List<int[]> ec, List<int[]> ek, List<int[]> es){
+        List<Integer> vs = new ArrayList<>();
+        for (int v = 1; v <= n; v++) vs.add(v);
+        List<int[]> hs = new ArrayList<>();
+        for (List<int[]> E : List.of(ec, ek, es)) for (int[] e : E) hs.add(Arrays.stream(e).map(v -> v + 1).toArray());
+        HypergraphTD.Result r = HypergraphTD.decompose(vs, hs);
+        TDNode[] nodes = new TDNode[r.bags.size()];
+        for (int i = 0; i < nodes.length; i++) nodes[i] = new TDNode(i + 1, Arrays.stream(r.bags.get(i)).map(v -> v - 1).toArray());
+        TDNode root = null;
+        List<TDNode> roots = new ArrayList<>();
+        for (int i = 0; i < nodes.length; i++) {
+            int p = r.parent.get(i);
+            if (p >= 0) nodes[p].addChild(nodes[i]);
+            else if (root == null) root = nodes[i];
+            else roots.add(nodes[i]);
+        }
+        for (TDNode x : roots) root.addChild(x);
+        return new TreeDecomposition(root);
+    }
+
+    /** 穷举：与冲突边 / 团一致的极大点集（repair）个数，以及其中不含任何解边的个数 */
+    private static long[] brute(int n, List<int[]> ec, List<int[]> ek, List<int[]> es){
+        long total = 0, falsify = 0;
+        for (int m = 0; m < (1 << n); m++) {
+            if (!consistent(m, ec, ek)) continue;
+            boolean maximal = true;
+            for (int v = 0; v < n && maximal; v++) if ((m >> v & 1) == 0 && consistent(m | 1 << v, ec, ek)) maximal = false;
+            if (!maximal) continue;
+            total++;
+            boolean hit = false;
+            for (int[] e : es) hit |= within(m, e) == e.length;
+            if (!hit) falsify++;
+        }
+        return new long[]{total, falsify};
+    }
+
+    private static boolean consistent(int m, List<int[]> ec, List<int[]> ek){
+        for (int[] e : ec) if (within(m, e) == e.length) return false;
+        for (int[] k : ek) if (within(m, k) >= 2) return false;
+        return true;
+    }
+
+    private static int within(int m, int[] e){
+        int c = 0;
+        for (int v : e) c += m >> v & 1;
+        return c;
+    }
+
+    private static String str(List<int[]> sets){
+        StringJoiner j = new StringJoiner(" ", "[", "]");
+        for (int[] s : sets) j.add(Arrays.toString(s));
+        return j.toString();
+    }
+}
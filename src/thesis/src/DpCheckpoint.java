@@ -0,0 +1,109 @@
+package thesis.src;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Engine 按后序填表时的检查点（-Dcqa.checkpoint.sec=N 开启，N 秒写一次；默认关闭）。
+ * 内容：后序里已完成的位置数，以及其中“已填满、父袋还没用完”的孩子 g 表（袋 id、交集宽度、按 fillG 顺序的 3^k 个值）。
+ * 文件为 result/checkpoint/<分解哈希>-<图哈希>.ckpt（-Dcqa.checkpoint.dir 可改），gzip 压缩、先写临时文件再原子改名；
+ * 重启时只有两个哈希都一致才续算，完成后删除。
+ * 开销上限：一次写盘若耗时 t，下一次至少隔 10t（写检查点的时间不超过总时间的约 1/10）。
+ */
+final class DpCheckpoint {
+
+    static final long INTERVAL_MS = Long.getLong("cqa.checkpoint.sec", 0L) * 1000;
+    static final boolean ENABLED = INTERVAL_MS > 0;
+    static final Path DIR = Path.of(System.getProperty("cqa.checkpoint.dir", Main.OUT_DIR + "/checkpoint"));
+
+    private static final int MAGIC = 0x43514b32; // "CQK2"
+
+    /** 一张孩子 g 表：values 按 s 升序、每个 s 内 r 从 s 递减到 0 的顺序 */
+    record Table(int bagId, int k, BigInteger[] values) {}
+
+    /** 读回的状态：done = 后序里已完成的位置数 */
+    record Saved(int done, List<Table> tables) {}
+
+    private final Path file;
+    private final String tdHash, graphHash;
+    private long nextAt, gap = INTERVAL_MS;
+
+    DpCheckpoint(String tdHash, String graphHash){
+        this.tdHash = tdHash; this.graphHash = graphHash;
+        this.file = DIR.resolve(tdHash.substring(0, 16) + "-" + graphHash.substring(0, 16) + ".ckpt");
+        this.nextAt = System.currentTimeMillis() + gap;
+    }
+
+    boolean due(){ return System.currentTimeMillis() >= nextAt; }
+
+    /** 没有或对不上的检查点返回 null */
+    Saved load(){
+        if (!Files.exists(file)) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+            if (in.readInt() != MAGIC || !in.readUTF().equals(tdHash) || !in.readUTF().equals(graphHash)) {
+                System.out.println("[WARN] Checkpoint " + file.getFileName() + " does not match the inputs; starting over.");
+                return null;
+            }
+            int done = in.readInt();
+            int n = in.readInt();
+            List<Table> tables = new ArrayList<>(n);
+            for (int t = 0; t < n; t++) {
+                int id = in.readInt(), k = in.readInt();
+                BigInteger[] v = new BigInteger[in.readInt()];
+                for (int i = 0; i < v.length; i++) {
+                    byte[] b = new byte[in.readInt()];
+                    in.readFully(b);
+                    v[i] = new BigInteger(b);
+                }
+                tables.add(new Table(id, k, v));
+            }
+            return new Saved(done, tables);
+        } catch (IOException e) {
+            System.out.println("[WARN] Unreadable checkpoint " + file.getFileName() + " (" + e.getMessage() + "); starting over.");
+            return null;
+        }
+    }
+
+    void save(int done, List<Table> tables){
+        long t0 = System.currentTimeMillis();
+        Path tmp = null;
+        try {
+            Files.createDirectories(DIR);
+            tmp = Files.createTempFile(DIR, "ckpt-", ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tmp))))) {
+                out.writeInt(MAGIC);
+                out.writeUTF(tdHash);
+                out.writeUTF(graphHash);
+                out.writeInt(done);
+                out.writeInt(tables.size());
+                for (Table t : tables) {
+                    out.writeInt(t.bagId());
+                    out.writeInt(t.k());
+                    out.writeInt(t.values().length);
+                    for (BigInteger v : t.values()) {
+                        byte[] b = v.toByteArray();
+                        out.writeInt(b.length);
+                        out.write(b);
+                    }
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            tmp = null;
+        } catch (IOException e) {
+            System.out.println("[WARN] Checkpoint not written: " + e.getMessage());
+        } finally {
+            if (tmp != null) try { Files.deleteIfExists(tmp); } catch (IOException ignored) { }
+        }
+        long now = System.currentTimeMillis();
+        gap = Math.max(INTERVAL_MS, 10 * (now - t0));
+        nextAt = now + gap;
+    }
+
+    void delete(){
+        try { Files.deleteIfExists(file); } catch (IOException ignored) { }
+    }
+}
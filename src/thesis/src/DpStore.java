@@ -0,0 +1,287 @@
+package thesis.src;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Engine 的 f/g 表存放方式（-Dcqa.dp.store）：
+ *  - heap（默认）：HashMap
+ *  - offheap：每张表一块 Arena 分配的开放寻址散列表（(r, s) -> 定宽值槽），不占 Java 堆
+ *  - mmap：同样的散列表放在 result/dp/ 下的映射文件里（-Dcqa.dp.dir 可改到本地 NVMe），映射后即删除目录项，释放时 unmap
+ * 各模式都只存实际访问到的状态。堆外表每槽一个键字加 w 个值字，w 由值的位数上界（子树顶点数）确定，
+ * 装载超过 1/2 时倍增。堆外存放时 Engine 按后序填表：孩子 c 的 g 表在父袋里填满后，c 的 f 表与 c 的孩子的
+ * g 表立即释放（unmap），同时存活的只有后序前沿上的表，而不是全部袋的表之和。每次分配或倍增前先核对字节数：一个 Engine 的堆外表合计不超过 -Dcqa.dp.maxBytes
+ * （默认 offheap 为物理内存减去最大堆，mmap 不限），mmap 另要求目标盘有足够的可用空间；
+ * 超出即抛 IllegalStateException，而不是分配时 OutOfMemoryError 或把磁盘写满。
+ * heap 模式可设条目上限（-Dcqa.dp.memo=N）：一个 Engine 的全部 f/g 表共用一个 LRU，超出即逐出最久未用的条目，
+ * 未命中时 Engine 按需重算（f/g 是纯函数），以时间换固定的堆上限。各模式都记命中 / 未命中 / 逐出次数。
+ */
+abstract class DpStore {
+
+    static final String MODE = System.getProperty("cqa.dp.store", "heap");
+    static final Path DIR = Path.of(System.getProperty("cqa.dp.dir", Main.OUT_DIR + "/dp"));
+    /** heap 模式下缓存的 f/g 条目上限，0 = 不限 */
+    static final long MEMO_MAX = Long.getLong("cqa.dp.memo", 0L);
+    /** offheap / mmap 表合计的字节上限，0 = 按模式取默认值 */
+    static final long MAX_BYTES = Long.getLong("cqa.dp.maxBytes", 0L);
+
+    long hits, misses, evictions;
+
+    String stats(){ return "hits=" + hits + " misses=" + misses + " evictions=" + evictions; }
+
+    interface Table {
+        /** 未计算过返回 null */
+        BigInteger get(int r, int s);
+        void put(int r, int s, BigInteger v);
+        void free();
+    }
+
+    static DpStore create(){
+        return switch (MODE) {
+            case "offheap" -> new OffHeap(false);
+            case "mmap"    -> new OffHeap(true);
+            case "heap"    -> MEMO_MAX > 0 ? new Bounded(MEMO_MAX) : new Heap();
+            default -> throw new IllegalArgumentException("cqa.dp.store must be heap, offheap or mmap: " + MODE);
+        };
+    }
+
+    /** 表在 Java 堆外：numberFalsify 结束即归还，之后的抽样按需重建 */
+    abstract boolean offHeap();
+
+    /** k = 掩码位数，bits = 值的位数上界 */
+    abstract Table open(int k, int bits);
+
+    /** 超出 max 个条目时按访问顺序逐出最旧的一条（也用于 Engine.Shared 的跨查询 g 缓存） */
+    static <K> Map<K, BigInteger> lru(long max, Runnable onEvict){
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<K, BigInteger> eldest){
+                if (size() <= max) return false;
+                onEvict.run();
+                return true;
+            }
+        };
+    }
+
+    /* ---------- heap ---------- */
+
+    private static final class Heap extends DpStore {
+        boolean offHeap(){ return false; }
+        Table open(int k, int bits){
+            return new Table() {
+                final Map<Long, BigInteger> m = new HashMap<>();
+                public BigInteger get(int r, int s){ return count(m.get(key(r, s))); }
+                public void put(int r, int s, BigInteger v){ m.put(key(r, s), v); }
+                public void free(){ m.clear(); }
+            };
+        }
+    }
+
+    /**
+     * (r, s) -> Long 键。乘奇常数是 64 位上的双射；直接用 r<<32|s 时 Long.hashCode = r^s，
+     * r ⊆ s 下所有差集相同的状态落进同一个桶。
+     */
+    static long key(int r, int s){ return (((long) r << 32) | (s & 0xffffffffL)) * 0x9E3779B97F4A7C15L; }
+
+    /** 命中计数后原样返回 */
+    BigInteger count(BigInteger v){
+        if (v == null) misses++; else hits++;
+        return v;
+    }
+
+    /* ---------- heap，限条目数 ---------- */
+
+    private static final class Bounded extends DpStore {
+        private record Key(int table, int r, int s) {}
+        final Map<Key, BigInteger> memo;
+        int nextTable, live;
+        Bounded(long max){ memo = lru(max, () -> evictions++); }
+        boolean offHeap(){ return false; }
+        Table open(int k, int bits){
+            int id = nextTable++;
+            live++;
+            return new Table() {
+                boolean freed;
+                public BigInteger get(int r, int s){ return count(memo.get(new Key(id, r, s))); }
+                public void put(int r, int s, BigInteger v){ memo.put(new Key(id, r, s), v); }
+                public void free(){ // 单张表的条目留给 LRU 逐出；全部表都释放后整体清空
+                    if (freed) return;
+                    freed = true;
+                    if (--live == 0) memo.clear();
+                }
+            };
+        }
+    }
+
+    /* ---------- offheap / mmap ---------- */
+
+    private static final class OffHeap extends DpStore {
+        final boolean mapped;
+        final long limit;
+        /** 本 Engine 当前持有的堆外 / 映射字节数 */
+        long bytes;
+
+        OffHeap(boolean mapped){
+            this.mapped = mapped;
+            this.limit = MAX_BYTES > 0 ? MAX_BYTES : mapped ? Long.MAX_VALUE : physicalMemory() - Runtime.getRuntime().maxMemory();
+        }
+        boolean offHeap(){ return true; }
+
+        Table open(int k, int bits){
+            int w = Math.max(1, (bits + 1 + 63) / 64);          // 多留一位：单字时值恒为非负 long
+            return new HashTable(this, w);
+        }
+
+        /** 分配 slots 个 (1 + w) 字的槽（全零 = 空）；超出字节上限或磁盘可用空间时抛 IllegalStateException */
+        Segment allocate(long slots, int w){
+            long size = slots * (1 + w) * 8L;
+            if (bytes + size > limit)
+                throw new IllegalStateException("DP tables need more than " + limit + " bytes off-heap"
+                        + " (cqa.dp.maxBytes; held " + bytes + ", next table " + size + ")");
+            Arena arena = Arena.ofShared();
+            MemorySegment seg;
+            try {
+                if (mapped) {
+                    Files.createDirectories(DIR);
+                    long free = Files.getFileStore(DIR).getUsableSpace();
+                    if (size > free)
+                        throw new IllegalStateException("DP table of " + size + " bytes does not fit in " + DIR + " (" + free + " bytes usable)");
+                    Path file = Files.createTempFile(DIR, "dp-", ".tbl");
+                    try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                        seg = ch.map(FileChannel.MapMode.READ_WRITE, 0, size, arena); // 稀疏文件，按页落盘
+                    }
+                    Files.delete(file); // 映射仍有效；进程异常退出也不会留下表文件
+                } else {
+                    seg = arena.allocate(size, 8);                 // 初始全零
+                }
+            } catch (IOException e) {
+                arena.close();
+                throw new UncheckedIOException(e);
+            } catch (RuntimeException e) {
+                arena.close();
+                throw e;
+            }
+            bytes += size;
+            return new Segment(arena, seg, size);
+        }
+
+        void release(Segment s){
+            s.arena.close();
+            bytes -= s.size;
+        }
+
+        private static long physicalMemory(){
+            return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getTotalMemorySize();
+        }
+    }
+
+    private record Segment(Arena arena, MemorySegment seg, long size) {}
+
+    /**
+     * 开放寻址（线性探测）散列表：槽 = [键, 值字 0..w-1]，键为 (r << 32 | s) + 1，0 为空槽。
+     * 值按低位字在前存 w 个 long；装载超过 1/2 时容量翻倍并重新散列。
+     */
+    private static final class HashTable implements Table {
+        private static final ValueLayout.OfLong L = ValueLayout.JAVA_LONG;
+        private static final int INITIAL_SLOTS = 1 << 8;
+        final OffHeap owner;
+        final int w;
+        final long slotBytes;
+        Segment cur;
+        long slots, size;
+        int shift;                                           // 64 - log2(slots)
+        boolean freed;
+
+        HashTable(OffHeap owner, int w){
+            this.owner = owner; this.w = w; this.slotBytes = (1 + w) * 8L;
+            resize(INITIAL_SLOTS);
+        }
+
+        /** 键所在的槽，或应插入的空槽 */
+        private long slot(long key){
+            long i = (DpStore.key((int) (key >>> 32), (int) key) >>> shift);
+            MemorySegment seg = cur.seg();
+            while (true) {
+                long k = seg.get(L, i * slotBytes);
+                if (k == 0 || k == key + 1) return i;
+                i = (i + 1) & (slots - 1);
+            }
+        }
+
+        public BigInteger get(int r, int s){
+            long key = ((long) r << 32) | (s & 0xffffffffL);
+            long off = slot(key) * slotBytes;
+            MemorySegment seg = cur.seg();
+            if (seg.get(L, off) == 0) { owner.misses++; return null; }
+            owner.hits++;
+            off += 8;
+            if (w == 1) return BigInteger.valueOf(seg.get(L, off));
+            byte[] be = new byte[w * 8];                         // 低位字在前 -> 大端字节
+            for (int j = 0; j < w; j++) {
+                long x = seg.get(L, off + j * 8L);
+                for (int b = 0; b < 8; b++) be[be.length - 1 - (j * 8 + b)] = (byte) (x >>> (8 * b));
+            }
+            return new BigInteger(1, be);
+        }
+
+        public void put(int r, int s, BigInteger v){
+            if (v.signum() < 0 || v.bitLength() > w * 64 - (w == 1 ? 1 : 0))
+                throw new IllegalStateException("DP value exceeds table width: " + v.bitLength() + " bits");
+            long key = ((long) r << 32) | (s & 0xffffffffL);
+            long off = slot(key) * slotBytes;
+            MemorySegment seg = cur.seg();
+            if (seg.get(L, off) == 0) {
+                if ((size + 1) * 2 > slots) { resize(slots * 2); put(r, s, v); return; }
+                seg.set(L, off, key + 1);
+                size++;
+            }
+            off += 8;
+            if (w == 1) {
+                seg.set(L, off, v.longValue());
+            } else {
+                byte[] be = v.toByteArray();
+                for (int j = 0; j < w; j++) {
+                    long x = 0;
+                    for (int b = 7; b >= 0; b--) {
+                        int p = be.length - 1 - (j * 8 + b);
+                        x = (x << 8) | (p >= 0 ? be[p] & 0xFF : 0);
+                    }
+                    seg.set(L, off + j * 8L, x);
+                }
+            }
+        }
+
+        /** 换到 n 个槽的新段，并把已有的槽逐个搬过去（新段先分配，超限时旧表保持原样） */
+        private void resize(long n){
+            Segment old = cur;
+            long oldSlots = slots;
+            cur = owner.allocate(n, w);
+            slots = n;
+            shift = 64 - Long.numberOfTrailingZeros(n);
+            if (old == null) return;
+            MemorySegment from = old.seg(), to = cur.seg();
+            for (long i = 0; i < oldSlots; i++) {
+                long k = from.get(L, i * slotBytes);
+                if (k == 0) continue;
+                long j = slot(k - 1);
+                MemorySegment.copy(from, i * slotBytes, to, j * slotBytes, slotBytes);
+            }
+            owner.release(old);
+        }
+
+        public void free(){
+            if (freed) return;
+            freed = true;
+            owner.release(cur);
+        }
+    }
+}
@@ -1,6 +1,10 @@
 package thesis.src;
 
+import java.io.*;
 import java.math.BigInteger;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 
 public class Dynmaic_Programming_Based_for_CQA {
@@ -10,8 +14,12 @@ public class Dynmaic_Programming_Based_for_CQA {
         public final int n;
         public final List<BitSet> conflictEdges;  // Ec
         public final List<BitSet> solutionEdges;  // Es
+        public final List<BitSet> conflictCliques; // 隐式团：成员两两冲突（见 ConflictGraph）
         public Hypergraph(int n, List<BitSet> conflictEdges, List<BitSet> solutionEdges) {
-            this.n = n; this.conflictEdges = conflictEdges; this.solutionEdges = solutionEdges;
+            this(n, conflictEdges, List.of(), solutionEdges);
+        }
+        public Hypergraph(int n, List<BitSet> conflictEdges, List<BitSet> conflictCliques, List<BitSet> solutionEdges) {
+            this.n = n; this.conflictEdges = conflictEdges; this.conflictCliques = conflictCliques; this.solutionEdges = solutionEdges;
         }
     }
 
@@ -20,8 +28,7 @@ public class Dynmaic_Programming_Based_for_CQA {
         public final int id;
         public final int[] bagElems;                 // 0-based fact ids
         public final List<TDNode> children = new ArrayList<>();
-        List<BitSet> conflictEdgesInBag;
-        List<BitSet> solutionEdgesInBag;
+        int index;                                   // Engine.Shared 中的稠密下标
         public TDNode(int id, int[] bagElems){ this.id=id; this.bagElems=bagElems; }
         public void addChild(TDNode child){ children.add(child); }
     }
@@ -32,71 +39,96 @@ public class Dynmaic_Programming_Based_for_CQA {
         public final Map<Integer, TDNode> nodes = new HashMap<>();
         public TreeDecomposition(TDNode root){ this.root=root; collect(root); }
         private void collect(TDNode u){ nodes.put(u.id,u); for(TDNode v:u.children) collect(v); }
-    }
-
-
-    public static final class Engine {
-        private final Hypergraph H;
-        private final TreeDecomposition T;
-
-        private final Map<Integer, Map<Integer,Integer>> localIndex = new HashMap<>();
-        private final Map<Long, BCMapping> bcMap = new HashMap<>();
-        private final Map<FKey, BigInteger> fMemo = new HashMap<>();
-        private final Map<GKey, BigInteger> gMemo = new HashMap<>();
-
-        public Engine(Hypergraph H, TreeDecomposition T){ this.H=H; this.T=T; prepare(); }
-
-        public BigInteger numberFalsify() {
-            TDNode a = T.root;
-            int bagSize = a.bagElems.length;
-            int allChildrenMask = (1 << a.children.size()) - 1;
-            BigInteger total = BigInteger.ZERO;
-            for (int rMask = 0; rMask < (1 << bagSize); rMask++) {
-                int sMask = (1 << bagSize) - 1; // a⁺（maxrep 会约束）
-                total = total.add(f(a, allChildrenMask, rMask, sMask));
-            }
-            return total;
+        /** 同构的新树（bagElems 共享）：TDNode.index 由 Engine.Shared 改写，并发的 Engine 各用一份 */
+        public TreeDecomposition copy(){ return new TreeDecomposition(copy(root)); }
+        private static TDNode copy(TDNode u){
+            TDNode c = new TDNode(u.id, u.bagElems);
+            for(TDNode v:u.children) c.addChild(copy(v));
+            return c;
         }
+    }
 
 
-        private void prepare(){
-            for (TDNode b : T.nodes.values()) {
-                Map<Integer,Integer> m = new HashMap<>();
-                for (int i = 0; i < b.bagElems.length; i++) m.put(b.bagElems[i], i);
-                localIndex.put(b.id, m);
-            }
-            for (TDNode b : T.nodes.values()) {
-                b.conflictEdgesInBag = new ArrayList<>();
-                b.solutionEdgesInBag = new ArrayList<>();
-                BitSet bagSet = new BitSet(H.n);
-                for (int g : b.bagElems) bagSet.set(g);
-                for (BitSet e : H.conflictEdges) if (isSubset(e, bagSet)) b.conflictEdgesInBag.add((BitSet)e.clone());
-                for (BitSet e : H.solutionEdges) if (isSubset(e, bagSet)) b.solutionEdgesInBag.add((BitSet)e.clone());
-            }
-            for (TDNode b : T.nodes.values()) {
-                for (int idx = 0; idx < b.children.size(); idx++) {
-                    TDNode c = b.children.get(idx);
-                    BCMapping map = new BCMapping(b, c, localIndex.get(b.id), localIndex.get(c.id));
-                    bcMap.put(pack(b.id, idx), map);
+    /**
+     * Engine 与 SemiringDp 共用的 f/g 递推：f(b, C, r, s) 把袋 b 的孩子按 C 逐个并进来，g 对子袋独有的点求和，
+     * 叶层只有一致的状态（R ∩ 袋无冲突，且极大性与 s 相符）才有值。
+     * 值域上的加减乘、叶层的值以及 f/g 表放在哪里由子类给出。
+     */
+    abstract static class Recurrence<V> {
+        /** 交集上待支配点数达到该值时，子袋合并改用 zeta/Möbius 变换 */
+        static final int CONV_MIN = Integer.getInteger("cqa.dp.convMin", 4);
+
+        final Engine.Shared S;
+        final TreeDecomposition T;
+        /** 按 TDNode.index：参与的冲突边 / 解边分配 */
+        final List<List<BitSet>> conflictIn, solutionIn;
+        /** 按 TDNode.index：袋内至少两个成员的冲突团，以袋内局部位掩码表示 */
+        final int[][] cliqueIn;
+
+        /**
+         * @param universe 顶点范围（0 基）；范围外的冲突边不计入，范围外的点因此必在 repair 中、因子为 1。
+         *                 null 表示 TD 上的全部顶点。
+         */
+        Recurrence(Engine.Shared S, BitSet universe, List<BitSet> solutionEdges){
+            this.S = S; this.T = S.T;
+            int nb = S.bags.length;
+            conflictIn = new ArrayList<>(nb);
+            solutionIn = new ArrayList<>(nb);
+            cliqueIn = new int[nb][];
+            for (int i = 0; i < nb; i++) {
+                List<BitSet> ce = S.conflictIn.get(i);
+                int[] cm = S.cliqueIn[i];
+                if (universe != null && !allIn(S.bags[i].bagElems, universe)) { // 范围外的成员不参与：团与范围相交，至少剩两个成员才保留
+                    List<BitSet> kept = new ArrayList<>();
+                    for (BitSet e : ce) if (isSubset(e, universe)) kept.add(e);
+                    ce = kept;
+                    int in = 0;
+                    int[] elems = S.bags[i].bagElems;
+                    for (int j = 0; j < elems.length; j++) if (universe.get(elems[j])) in |= 1 << j;
+                    int[] km = new int[cm.length];
+                    int n = 0;
+                    for (int m : cm) if (Integer.bitCount(m & in) >= 2) km[n++] = m & in;
+                    cm = Arrays.copyOf(km, n);
                 }
+                conflictIn.add(ce);
+                cliqueIn[i] = cm;
+                solutionIn.add(new ArrayList<>());
             }
+            int[] hits = new int[nb];
+            int[] touched = new int[nb];
+            for (BitSet e : solutionEdges) Engine.assignEdge(e, S.bagsOf, hits, touched, solutionIn);
         }
 
-
-        private BigInteger f(TDNode b, int Cmask, int rMask, int sMask){
-            FKey key = new FKey(b.id, Cmask, rMask, sMask);
-            BigInteger cached = fMemo.get(key);
+        abstract V zero();
+        abstract V add(V a, V b);
+        abstract V subtract(V a, V b);
+        abstract V mul(V a, V b);
+        abstract boolean isZero(V a);
+        abstract V[] newArray(int n);
+
+        /** 一致的叶状态（袋 b 内选 rMask）的值；sol = rMask 含一条解边 */
+        abstract V leaf(TDNode b, int rMask, boolean sol);
+
+        /** f 表（袋 b 的第 level 层）与 g 表（b 的第 childIdx 个孩子）；没存的为 null */
+        abstract V fGet(TDNode b, int level, int rMask, int sMask);
+        abstract void fPut(TDNode b, int level, int rMask, int sMask, V v);
+        abstract V gGet(TDNode b, int childIdx, int rInter, int sInter);
+        abstract void gPut(TDNode b, int childIdx, int rInter, int sInter, V v);
+
+        final V f(TDNode b, int Cmask, int rMask, int sMask){
+            int level = Cmask == 0 ? b.children.size() : Integer.numberOfTrailingZeros(Cmask);
+            V cached = fGet(b, level, rMask, sMask);
             if (cached != null) return cached;
 
             if (Cmask == 0) {
-                BigInteger res = h(b, rMask, sMask) ? BigInteger.ONE : BigInteger.ZERO;
-                fMemo.put(key, res); return res;
+                V res = consistent(b, rMask, sMask) ? leaf(b, rMask, containsEdge(solutionIn.get(b.index), b, rMask)) : zero();
+                fPut(b, level, rMask, sMask, res);
+                return res;
             }
 
             int childIdx = Integer.numberOfTrailingZeros(Cmask);
             int restC = Cmask & ~(1 << childIdx);
-            TDNode c = b.children.get(childIdx);
-            BCMapping map = bcMap.get(pack(b.id, childIdx));
+            Engine.BCMapping map = S.bcMap.get(Engine.pack(b.id, childIdx));
 
             int sInterB = sMask & map.maskBInter;
             int rInterB = rMask & map.maskBInter;
@@ -105,79 +137,650 @@ public class Dynmaic_Programming_Based_for_CQA {
             int rInter = map.interMaskBToInterMask(rInterB);
             int free = sInter & ~rInter;
 
-            BigInteger sum = BigInteger.ZERO;
+            int sMinusC_B = sMask & ~map.maskBInter;
+            V sum = Integer.bitCount(free) < CONV_MIN
+                    ? coverDirect(b, restC, childIdx, map, rMask, sMinusC_B, rInter, free)
+                    : coverTransform(b, restC, childIdx, map, rMask, sMinusC_B, rInter, free);
+            fPut(b, level, rMask, sMask, sum);
+            return sum;
+        }
+
+        /**
+         * 子袋合并：交集上待支配的 free 由两侧共同覆盖，同一点可以被两侧同时支配，
+         * 所以是覆盖积 Σ_{A∪B=free} L(A)·G(B)，而不是不交划分
+         * （L(A) = 其余孩子恰好支配 A，G(B) = 该孩子恰好支配 B）。
+         * 直接枚举 O(3^k)；k ≥ -Dcqa.dp.convMin 时用 zeta 变换：L̂(X)·Ĝ(X) 再做 Möbius 取 X = free，O(k·2^k)。
+         */
+        private V coverDirect(TDNode b, int restC, int childIdx, Engine.BCMapping map,
+                              int rMask, int sMinusC_B, int rInter, int free){
+            V sum = zero();
             for (int t = free; ; t = (t - 1) & free) {
-                int s1  = rInter | t;
-                int s2  = rInter | (free ^ t);
+                V left = f(b, restC, rMask, sMinusC_B | map.interMaskToBMask(rInter | t));
+                if (!isZero(left)) {
+                    int need = rInter | (free ^ t);
+                    for (int u = t; ; u = (u - 1) & t) {
+                        sum = add(sum, mul(left, g(b, childIdx, rInter, need | u)));
+                        if (u == 0) break;
+                    }
+                }
+                if (t == 0) break;
+            }
+            return sum;
+        }
 
-                int sMinusC_B = sMask & ~map.maskBInter;
-                int s1_B = map.interMaskToBMask(s1);
-                int sNew_B = sMinusC_B | s1_B;
+        private V coverTransform(TDNode b, int restC, int childIdx, Engine.BCMapping map,
+                                 int rMask, int sMinusC_B, int rInter, int free){
+            int k = Integer.bitCount(free), m = 1 << k;
+            V[] L = newArray(m), G = newArray(m);
+            for (int i = 0, t = 0; i < m; i++, t = (t - free) & free) { // t 按压缩下标 i 的顺序枚举 free 的子集
+                L[i] = f(b, restC, rMask, sMinusC_B | map.interMaskToBMask(rInter | t));
+                G[i] = g(b, childIdx, rInter, rInter | t);
+            }
+            return coverProduct(L, G, k);
+        }
 
-                BigInteger left  = f(b, restC, rMask, sNew_B);
-                BigInteger right = g(b, childIdx, rInter, s2);
-                sum = sum.add(left.multiply(right));
-                if (t == 0) break;
+        /** Σ_X (-1)^{k-|X|} L̂(X)·Ĝ(X)，L、G 按压缩下标、原地做 zeta */
+        V coverProduct(V[] L, V[] G, int k){
+            int m = 1 << k;
+            for (int bit = 1; bit < m; bit <<= 1)
+                for (int i = 0; i < m; i++) if ((i & bit) != 0) { L[i] = add(L[i], L[i ^ bit]); G[i] = add(G[i], G[i ^ bit]); }
+            V acc = zero();
+            for (int i = 0; i < m; i++) {
+                V p = mul(L[i], G[i]);
+                acc = ((k - Integer.bitCount(i)) & 1) == 0 ? add(acc, p) : subtract(acc, p);
             }
-            fMemo.put(key, sum); return sum;
+            return acc;
         }
 
-        private BigInteger g(TDNode b, int childIdx, int rInter, int sInter){
-            GKey key = new GKey(b.id, childIdx, rInter, sInter);
-            BigInteger cached = gMemo.get(key);
+        final V g(TDNode b, int childIdx, int rInter, int sInter){
+            V cached = gGet(b, childIdx, rInter, sInter);
             if (cached != null) return cached;
 
             TDNode c = b.children.get(childIdx);
+            Engine.BCMapping map = S.bcMap.get(Engine.pack(b.id, childIdx));
             int CmaskChild = (1 << c.children.size()) - 1;
-            BCMapping map = bcMap.get(pack(b.id, childIdx));
 
             int rC = map.interMaskToCMask(rInter);
             int sC = map.interMaskToCMask(sInter);
             int sUnion = sC | map.maskCminusB;
 
-            BigInteger sum = BigInteger.ZERO;
+            V sum = zero();
             int free = map.maskCminusB;
-            int freeCount = Integer.bitCount(free);
-            for (int idx = 0; idx < (1 << freeCount); idx++) {
-                int rPrime = liftSubmask(idx, free);
-                sum = sum.add(f(c, CmaskChild, rC | rPrime, sUnion));
+            for (int rPrime = free; ; rPrime = (rPrime - 1) & free) {
+                sum = add(sum, f(c, CmaskChild, rC | rPrime, sUnion));
+                if (rPrime == 0) break;
             }
-            gMemo.put(key, sum); return sum;
+            gPut(b, childIdx, rInter, sInter, sum);
+            return sum;
         }
 
         /* ---------- h & maxrep ---------- */
 
-        private boolean h(TDNode b, int rMask, int sMask){
-            if (containsEdge(b.conflictEdgesInBag, b, rMask)) return false;
-            if (containsEdge(b.solutionEdgesInBag, b, rMask)) return false;
-            Integer sComputed = maxrep(b, rMask);
-            return sComputed != null && sComputed == sMask;
-        }
-
-        private Integer maxrep(TDNode b, int rMask){
-            if (containsEdge(b.conflictEdgesInBag, b, rMask)) return null;
-            int sMask = rMask;
-            int all = (1 << b.bagElems.length) - 1;
-            int rest = all & ~rMask;
+        /** R ∩ 袋 无冲突，且 maxrep（R 加上与 R 冲突的袋内点）恰为 s */
+        private boolean consistent(TDNode b, int rMask, int sMask){
+            if (conflicting(b, rMask)) return false;
+            int s = rMask;
             for (int bit = 0; bit < b.bagElems.length; bit++) {
-                if (((rest >> bit) & 1) == 0) continue;
-                int rPlus = rMask | (1 << bit);
-                if (containsEdge(b.conflictEdgesInBag, b, rPlus)) sMask |= (1 << bit);
+                if (((rMask >> bit) & 1) == 0 && conflicting(b, rMask | (1 << bit))) s |= 1 << bit;
             }
-            return sMask;
+            return s == sMask;
         }
 
+        /** R ∩ 袋 含某条冲突边，或某个冲突团的两个成员 */
+        private boolean conflicting(TDNode b, int rMask){
+            for (int m : cliqueIn[b.index]) { int x = rMask & m; if ((x & (x - 1)) != 0) return true; }
+            return containsEdge(conflictIn.get(b.index), b, rMask);
+        }
 
-        private static boolean containsEdge(List<BitSet> edgesInBag, TDNode b, int rMask){
+        static boolean containsEdge(List<BitSet> edgesInBag, TDNode b, int rMask){
             BitSet rSet = new BitSet();
             for (int i = 0; i < b.bagElems.length; i++) if (((rMask >> i) & 1) != 0) rSet.set(b.bagElems[i]);
             for (BitSet e : edgesInBag) if (isSubset(e, rSet)) return true;
             return false;
         }
-        private static boolean isSubset(BitSet a, BitSet b){
+        static boolean isSubset(BitSet a, BitSet b){
             BitSet t = (BitSet)a.clone(); t.andNot(b); return t.isEmpty();
         }
-        private static long pack(int a, int b){ return (((long)a) << 32) ^ (b & 0xffffffffL); }
+        static boolean allIn(int[] elems, BitSet universe){
+            for (int g : elems) if (!universe.get(g)) return false;
+            return true;
+        }
+    }
+
+
+    public static final class Engine extends Recurrence<BigInteger> {
+        /** 按 TDNode.index：子树是否可用 S.gMemo */
+        private final boolean[] reusable;
+        private final BitSet universe;
+
+        /** f 表按 [袋][层]（层 j = 还剩第 j.. 个孩子），g 表按子袋；见 DpStore */
+        private final DpStore store = DpStore.create();
+        private final DpStore.Table[][] fTab;
+        private final DpStore.Table[] gTab;
+
+        public Engine(Hypergraph H, TreeDecomposition T){
+            this(new Shared(H.conflictEdges, H.conflictCliques, T), null, H.solutionEdges);
+        }
+
+        /**
+         * 在共享的 TD 状态上为一个查询建引擎。
+         * @param universe 本查询的顶点范围（0 基），见 Recurrence；null 表示 TD 上的全部顶点。
+         */
+        public Engine(Shared S, BitSet universe, List<BitSet> solutionEdges){
+            super(S, universe, solutionEdges);
+            this.universe = universe;
+            int nb = S.bags.length;
+
+            // 子树内无解边且全部在 universe 内：其 g 值与查询无关
+            fTab = new DpStore.Table[nb][];
+            gTab = new DpStore.Table[nb];
+            reusable = new boolean[nb];
+            for (int i : S.postOrder) {
+                boolean ok = (universe == null || allIn(S.bags[i].bagElems, universe)) && solutionIn.get(i).isEmpty();
+                for (TDNode c : S.bags[i].children) ok &= reusable[c.index];
+                reusable[i] = ok;
+            }
+        }
+
+        /* ---------- 计数的值域与表存放（Recurrence） ---------- */
+
+        BigInteger zero(){ return BigInteger.ZERO; }
+        BigInteger add(BigInteger a, BigInteger b){ return a.add(b); }
+        BigInteger subtract(BigInteger a, BigInteger b){ return a.subtract(b); }
+        BigInteger mul(BigInteger a, BigInteger b){ return a.multiply(b); }
+        boolean isZero(BigInteger a){ return a.signum() == 0; }
+        BigInteger[] newArray(int n){ return new BigInteger[n]; }
+
+        /** 只数证伪的 repair：含解边的叶状态为 0 */
+        BigInteger leaf(TDNode b, int rMask, boolean sol){ return sol ? BigInteger.ZERO : BigInteger.ONE; }
+
+        /** 非根袋的第 0 层只被父袋的 g 读一次（(r, s) 唯一对应一个 g 状态，g 自己有缓存），不必存 */
+        private DpStore.Table fTableFor(TDNode b, int level){
+            return (level == 0 && b != T.root) ? null : fTable(b, level);
+        }
+        BigInteger fGet(TDNode b, int level, int rMask, int sMask){
+            DpStore.Table tab = fTableFor(b, level);
+            return tab == null ? null : tab.get(rMask, sMask);
+        }
+        void fPut(TDNode b, int level, int rMask, int sMask, BigInteger v){
+            DpStore.Table tab = fTableFor(b, level);
+            if (tab != null) tab.put(rMask, sMask, v);
+        }
+
+        /** 可复用子树的 g 跨查询共享（堆上）；其余进本引擎的 g 表 */
+        BigInteger gGet(TDNode b, int childIdx, int rInter, int sInter){
+            TDNode c = b.children.get(childIdx);
+            if (reusable[c.index]) return store.count(S.gMemo.get(new GKey(b.id, childIdx, rInter, sInter)));
+            return gTable(c, S.bcMap.get(pack(b.id, childIdx)).interToBBit.length).get(rInter, sInter);
+        }
+        void gPut(TDNode b, int childIdx, int rInter, int sInter, BigInteger v){
+            TDNode c = b.children.get(childIdx);
+            if (reusable[c.index]) S.gMemo.put(new GKey(b.id, childIdx, rInter, sInter), v);
+            else gTable(c, S.bcMap.get(pack(b.id, childIdx)).interToBBit.length).put(rInter, sInter, v);
+        }
+
+        /** zeta 后的值、乘积及其 2^k 项之和都放得进 long 时走 long */
+        @Override
+        BigInteger coverProduct(BigInteger[] L, BigInteger[] G, int k){
+            int m = 1 << k, maxBits = 0;
+            for (int i = 0; i < m; i++) maxBits = Math.max(maxBits, Math.max(L[i].bitLength(), G[i].bitLength()));
+            if (2 * (maxBits + k) + k >= 62) return super.coverProduct(L, G, k);
+            long[] l = new long[m], g = new long[m];
+            for (int i = 0; i < m; i++) { l[i] = L[i].longValue(); g[i] = G[i].longValue(); }
+            for (int bit = 1; bit < m; bit <<= 1)
+                for (int i = 0; i < m; i++) if ((i & bit) != 0) { l[i] += l[i ^ bit]; g[i] += g[i ^ bit]; }
+            long acc = 0;
+            for (int i = 0; i < m; i++) {
+                long p = l[i] * g[i];
+                acc += ((k - Integer.bitCount(i)) & 1) == 0 ? p : -p;
+            }
+            return BigInteger.valueOf(acc);
+        }
+
+        public BigInteger numberFalsify() {
+            TDNode a = T.root;
+            DpCheckpoint ck = DpCheckpoint.ENABLED ? checkpoint() : null;
+            try {
+                // 堆外存放或检查点：后序逐个填满子袋的 g 表，父袋的 g 表一填完就释放其下的 f / g 表
+                if (store.offHeap() || ck != null) {
+                    int start = ck == null ? 0 : resume(ck);
+                    for (int p = start; p < S.postOrder.length; p++) {
+                        int i = S.postOrder[p];
+                        if (S.bags[i] == a) continue;
+                        fillG(S.bags[S.parent[i]], S.childIdx[i]);
+                        freeBelow(S.bags[i]);
+                        if (ck != null && ck.due()) ck.save(p + 1, frontier(p + 1));
+                    }
+                }
+                int bagSize = a.bagElems.length;
+                int allChildrenMask = (1 << a.children.size()) - 1;
+                BigInteger total = BigInteger.ZERO;
+                for (int rMask = 0; rMask < (1 << bagSize); rMask++) {
+                    int sMask = (1 << bagSize) - 1; // a⁺（maxrep 会约束）
+                    total = total.add(f(a, allChildrenMask, rMask, sMask));
+                }
+                if (ck != null) ck.delete();
+                return total;
+            } finally {
+                if (store.offHeap()) close(); // 失败时也归还；之后的抽样会按需重建，用完需 close()
+            }
+        }
+
+        /* ---------- 检查点（DpCheckpoint） ---------- */
+
+        /**
+         * 两个键：分解（后序上每个袋的 id、元素、父袋与孩子顺序）与本引擎的图输入
+         * （各袋分到的冲突边、团掩码、解边，以及顶点范围；边按内容排序，与输入顺序无关）。
+         */
+        private DpCheckpoint checkpoint(){
+            MessageDigest td, gr;
+            try { td = MessageDigest.getInstance("SHA-256"); gr = MessageDigest.getInstance("SHA-256"); }
+            catch (NoSuchAlgorithmException e) { throw new IllegalStateException(e); }
+            try (DataOutputStream t = new DataOutputStream(new DigestOutputStream(OutputStream.nullOutputStream(), td));
+                 DataOutputStream g = new DataOutputStream(new DigestOutputStream(OutputStream.nullOutputStream(), gr))) {
+                for (int i : S.postOrder) {
+                    TDNode b = S.bags[i];
+                    t.writeInt(b.id);
+                    t.writeInt(S.parent[i] < 0 ? -1 : S.bags[S.parent[i]].id);
+                    t.writeInt(b.bagElems.length);
+                    for (int v : b.bagElems) t.writeInt(v);
+                    t.writeInt(b.children.size());
+                    for (TDNode c : b.children) t.writeInt(c.id);
+                    for (List<BitSet> E : List.of(conflictIn.get(i), solutionIn.get(i))) {
+                        List<long[]> w = new ArrayList<>();
+                        for (BitSet e : E) w.add(e.toLongArray());
+                        w.sort(Arrays::compare);
+                        g.writeInt(w.size());
+                        for (long[] x : w) { g.writeInt(x.length); for (long y : x) g.writeLong(y); }
+                    }
+                    int[] km = cliqueIn[i].clone();
+                    Arrays.sort(km);
+                    g.writeInt(km.length);
+                    for (int m : km) g.writeInt(m);
+                }
+                long[] u = universe == null ? new long[0] : universe.toLongArray();
+                g.writeBoolean(universe != null);
+                for (long x : u) g.writeLong(x);
+            } catch (IOException e) { throw new UncheckedIOException(e); }
+            return new DpCheckpoint(HexFormat.of().formatHex(td.digest()), HexFormat.of().formatHex(gr.digest()));
+        }
+
+        /** 后序前 done 个位置里、父袋还在其后的孩子：它们的 g 表已填满且尚未被消费 */
+        private List<DpCheckpoint.Table> frontier(int done){
+            int[] pos = new int[S.bags.length];
+            for (int p = 0; p < S.postOrder.length; p++) pos[S.postOrder[p]] = p;
+            List<DpCheckpoint.Table> out = new ArrayList<>();
+            for (int p = 0; p < done; p++) {
+                int i = S.postOrder[p];
+                if (S.parent[i] < 0 || pos[S.parent[i]] < done) continue;
+                TDNode b = S.bags[S.parent[i]];
+                int k = S.bcMap.get(pack(b.id, S.childIdx[i])).interToBBit.length;
+                BigInteger[] v = new BigInteger[pow3(k)];
+                int n = 0;
+                for (int sInter = 0; sInter < (1 << k); sInter++) {
+                    for (int r = sInter; ; r = (r - 1) & sInter) {
+                        v[n++] = g(b, S.childIdx[i], r, sInter);  // 已在表中
+                        if (r == 0) break;
+                    }
+                }
+                out.add(new DpCheckpoint.Table(S.bags[i].id, k, v));
+            }
+            return out;
+        }
+
+        /** 读回检查点里的 g 表，返回可以跳过的后序位置数 */
+        private int resume(DpCheckpoint ck){
+            DpCheckpoint.Saved sv = ck.load();
+            if (sv == null) return 0;
+            Map<Integer, Integer> byId = new HashMap<>();
+            for (int i = 0; i < S.bags.length; i++) byId.put(S.bags[i].id, i);
+            for (DpCheckpoint.Table t : sv.tables()) {
+                int i = byId.get(t.bagId());
+                TDNode b = S.bags[S.parent[i]], c = S.bags[i];
+                int ci = S.childIdx[i], n = 0;
+                DpStore.Table tab = reusable[c.index] ? null : gTable(c, t.k());
+                for (int sInter = 0; sInter < (1 << t.k()); sInter++) {
+                    for (int r = sInter; ; r = (r - 1) & sInter) {
+                        BigInteger v = t.values()[n++];
+                        if (tab == null) S.gMemo.put(new GKey(b.id, ci, r, sInter), v); else tab.put(r, sInter, v);
+                        if (r == 0) break;
+                    }
+                }
+            }
+            System.out.println("[INFO] Resumed from checkpoint: " + sv.done() + " of " + S.postOrder.length + " bags done");
+            return sv.done();
+        }
+
+        private static int pow3(int k){ int p = 1; for (int i = 0; i < k; i++) p *= 3; return p; }
+
+        /** 释放仍持有的全部 f/g 表（堆外 / 映射存放时归还内存） */
+        public void close(){
+            for (TDNode b : S.bags) freeBelow(b);
+        }
+
+        /** g(b, childIdx, ·, ·) 的全部 r ⊆ s 状态 */
+        private void fillG(TDNode b, int childIdx){
+            int k = S.bcMap.get(pack(b.id, childIdx)).interToBBit.length;
+            for (int sInter = 0; sInter < (1 << k); sInter++) {
+                for (int r = sInter; ; r = (r - 1) & sInter) {
+                    g(b, childIdx, r, sInter);
+                    if (r == 0) break;
+                }
+            }
+        }
+
+        /** 释放袋 c 自己的 f 表与其孩子的 g 表（c 的 g 表已填满） */
+        private void freeBelow(TDNode c){
+            DpStore.Table[] ft = fTab[c.index];
+            if (ft != null) for (DpStore.Table t : ft) if (t != null) t.free();
+            fTab[c.index] = null;
+            for (TDNode cc : c.children) {
+                if (gTab[cc.index] != null) gTab[cc.index].free();
+                gTab[cc.index] = null;
+            }
+        }
+
+        /** 值的位数上界取表所覆盖的顶点数：f(b, 层 j) = 袋 b ∪ 第 j.. 个孩子的子树，g(c) = c 的子树 */
+        private DpStore.Table fTable(TDNode b, int level){
+            DpStore.Table[] ft = fTab[b.index];
+            if (ft == null) ft = fTab[b.index] = new DpStore.Table[b.children.size() + 1];
+            if (ft[level] == null) {
+                int bits = b.bagElems.length;
+                for (int i = level; i < b.children.size(); i++) bits += S.subVerts[b.children.get(i).index];
+                ft[level] = store.open(b.bagElems.length, bits);
+            }
+            return ft[level];
+        }
+        private DpStore.Table gTable(TDNode c, int k){
+            if (gTab[c.index] == null) gTab[c.index] = store.open(k, S.subVerts[c.index]);
+            return gTab[c.index];
+        }
+
+        /** 缓存命中 / 未命中 / 逐出次数（含共享的 g 缓存） */
+        public String memoStats(){
+            return "hits=" + store.hits + " misses=" + store.misses + " evictions=" + (store.evictions + S.gEvictions);
+        }
+
+        /** 同一 TD 与顶点范围、但不带解边的引擎：其计数与抽样对象是全部 repair */
+        public Engine allRepairs(){ return new Engine(S, universe, List.of()); }
+
+        /* ---------- 按 DP 表抽样 ---------- */
+
+        /** 一个选择点：候选项及其累计权重（总和放得进 long 时只用 cumL） */
+        private static final class Choice {
+            final long[] opts;
+            final long[] cumL;
+            final BigInteger[] cumB;
+            Choice(long[] opts, BigInteger[] w){
+                this.opts = opts;
+                BigInteger[] cum = new BigInteger[w.length];
+                BigInteger acc = BigInteger.ZERO;
+                for (int i = 0; i < w.length; i++) cum[i] = acc = acc.add(w[i]);
+                if (acc.bitLength() < 63) {
+                    cumL = new long[w.length];
+                    for (int i = 0; i < w.length; i++) cumL[i] = cum[i].longValue();
+                    cumB = null;
+                } else { cumL = null; cumB = cum; }
+            }
+            long pick(SplittableRandom rnd){
+                int lo = 0, hi = opts.length - 1;   // 第一个 cum > r（零权重项的 cum 与前一项相等，不会被选中）
+                if (cumL != null) {
+                    long r = rnd.nextLong(cumL[hi]);
+                    while (lo < hi) { int mid = (lo + hi) >>> 1; if (cumL[mid] > r) hi = mid; else lo = mid + 1; }
+                } else {
+                    BigInteger total = cumB[hi], r;
+                    int bits = total.bitLength();
+                    byte[] buf = new byte[(bits + 7) / 8];
+                    do { rnd.nextBytes(buf); r = new BigInteger(1, buf).shiftRight(buf.length * 8 - bits); } // [0, 2^bits) 上拒绝抽样
+                    while (r.compareTo(total) >= 0);
+                    while (lo < hi) { int mid = (lo + hi) >>> 1; if (cumB[mid].compareTo(r) > 0) hi = mid; else lo = mid + 1; }
+                }
+                return opts[lo];
+            }
+        }
+        private final Map<FKey, Choice> fChoice = new HashMap<>();
+        private final Map<GKey, Choice> gChoice = new HashMap<>();
+        private Choice rootChoice;
+
+        /**
+         * 自顶向下按 f/g 的值均匀抽取 k 个被 numberFalsify 计数的 repair，每个以升序的 0 基顶点交给 sink。
+         * 每个选择点的累计分布只算一次并缓存，之后每个样本只是沿 TD 查表；计数为 0 时不产生样本。
+         */
+        public void sample(long k, long seed, java.util.function.Consumer<int[]> sink){
+            TDNode a = T.root;
+            if (rootChoice == null) {
+                int size = 1 << a.bagElems.length, full = size - 1, all = (1 << a.children.size()) - 1;
+                long[] opts = new long[size];
+                BigInteger[] w = new BigInteger[size];
+                for (int r = 0; r < size; r++) { opts[r] = r; w[r] = f(a, all, r, full); }
+                rootChoice = new Choice(opts, w);
+            }
+            if (rootChoice.cumL != null ? rootChoice.cumL[rootChoice.cumL.length - 1] == 0
+                                        : rootChoice.cumB[rootChoice.cumB.length - 1].signum() == 0) return;
+            SplittableRandom rnd = new SplittableRandom(seed);
+            int[] mark = new int[S.bagsOf.length];
+            int[] buf = new int[S.bagsOf.length];
+            for (long i = 1; i <= k; i++) {
+                int[] cnt = {0};
+                walkF(a, (1 << a.children.size()) - 1, (int) rootChoice.pick(rnd), (1 << a.bagElems.length) - 1,
+                        rnd, mark, (int) i, buf, cnt);
+                int[] rep = Arrays.copyOf(buf, cnt[0]);
+                Arrays.sort(rep);
+                sink.accept(rep);
+            }
+        }
+
+        private void walkF(TDNode b, int Cmask, int rMask, int sMask,
+                           SplittableRandom rnd, int[] mark, int stamp, int[] buf, int[] cnt){
+            if (Cmask == 0) {
+                for (int i = 0; i < b.bagElems.length; i++) {
+                    int g = b.bagElems[i];
+                    if (((rMask >> i) & 1) != 0 && mark[g] != stamp) { mark[g] = stamp; buf[cnt[0]++] = g; }
+                }
+                return;
+            }
+            int childIdx = Integer.numberOfTrailingZeros(Cmask);
+            int restC = Cmask & ~(1 << childIdx);
+            BCMapping map = S.bcMap.get(pack(b.id, childIdx));
+            int sInter = map.interMaskBToInterMask(sMask & map.maskBInter);
+            int rInter = map.interMaskBToInterMask(rMask & map.maskBInter);
+            int free = sInter & ~rInter;
+            int sMinusC_B = sMask & ~map.maskBInter;
+
+            FKey key = new FKey(b.id, Cmask, rMask, sMask);
+            Choice ch = fChoice.get(key);
+            if (ch == null) {
+                // 与 f 相同的覆盖分解：左侧恰好支配 t，孩子恰好支配 (free\t) ∪ u，u ⊆ t
+                List<Long> opts = new ArrayList<>();
+                List<BigInteger> w = new ArrayList<>();
+                for (int t = free; ; t = (t - 1) & free) {
+                    BigInteger left = f(b, restC, rMask, sMinusC_B | map.interMaskToBMask(rInter | t));
+                    if (left.signum() != 0) {
+                        for (int u = t; ; u = (u - 1) & t) {
+                            int sc = rInter | (free ^ t) | u;
+                            opts.add(((long) t << 32) | (sc & 0xffffffffL));
+                            w.add(left.multiply(g(b, childIdx, rInter, sc)));
+                            if (u == 0) break;
+                        }
+                    }
+                    if (t == 0) break;
+                }
+                ch = new Choice(opts.stream().mapToLong(Long::longValue).toArray(), w.toArray(new BigInteger[0]));
+                fChoice.put(key, ch);
+            }
+            long o = ch.pick(rnd);
+            int t = (int) (o >>> 32), sc = (int) o;
+            walkF(b, restC, rMask, sMinusC_B | map.interMaskToBMask(rInter | t), rnd, mark, stamp, buf, cnt);
+            walkG(b, childIdx, rInter, sc, rnd, mark, stamp, buf, cnt);
+        }
+
+        private void walkG(TDNode b, int childIdx, int rInter, int sInter,
+                           SplittableRandom rnd, int[] mark, int stamp, int[] buf, int[] cnt){
+            TDNode c = b.children.get(childIdx);
+            BCMapping map = S.bcMap.get(pack(b.id, childIdx));
+            int CmaskChild = (1 << c.children.size()) - 1;
+            int rC = map.interMaskToCMask(rInter);
+            int sUnion = map.interMaskToCMask(sInter) | map.maskCminusB;
+
+            GKey key = new GKey(b.id, childIdx, rInter, sInter);
+            Choice ch = gChoice.get(key);
+            if (ch == null) {
+                int free = map.maskCminusB;
+                int m = 1 << Integer.bitCount(free);
+                long[] opts = new long[m];
+                BigInteger[] w = new BigInteger[m];
+                for (int idx = 0; idx < m; idx++) {
+                    opts[idx] = liftSubmask(idx, free);
+                    w[idx] = f(c, CmaskChild, rC | (int) opts[idx], sUnion);
+                }
+                ch = new Choice(opts, w);
+                gChoice.put(key, ch);
+            }
+            walkF(c, CmaskChild, rC | (int) ch.pick(rnd), sUnion, rnd, mark, stamp, buf, cnt);
+        }
+
+        /**
+         * 与查询无关、可在多个 Engine 之间共享的状态（批量计数时只建一次）：
+         * 袋的倒排表、冲突边的袋分配、父子袋的下标映射，以及可复用子树上的 g 值。
+         * 单线程使用；并发查询各自建 Shared。
+         */
+        public static final class Shared {
+            final TreeDecomposition T;
+            final TDNode[] bags;          // bags[i].index == i
+            final int[] postOrder;        // 子袋先于父袋
+            final int[] parent, childIdx; // 父袋下标与在父袋中的孩子序号（根为 -1）
+            final int[] subVerts;         // 子树中的不同顶点数
+            final int[][] bagsOf;         // 顶点 -> 包含它的袋下标
+            final List<List<BitSet>> conflictIn;
+            final int[][] cliqueIn;
+            final Map<Long, BCMapping> bcMap = new HashMap<>();
+            long gEvictions;
+            /** 跨查询的 g 值；-Dcqa.dp.memo 设了上限时同样按 LRU 逐出 */
+            final Map<GKey, BigInteger> gMemo = DpStore.MEMO_MAX > 0 ? DpStore.lru(DpStore.MEMO_MAX, () -> gEvictions++) : new HashMap<>();
+
+            /**
+             * 单趟预处理：先建 顶点 -> 包含它的袋 的倒排表，每条边只在候选袋上计数命中，
+             * 命中次数等于边大小即被该袋覆盖；全局 -> 局部下标用一张复用的 int[]。
+             */
+            public Shared(List<BitSet> conflictEdges, TreeDecomposition T){ this(conflictEdges, List.of(), T); }
+
+            /** conflictCliques：每个团只在含其 ≥ 2 个成员的袋上留一个局部掩码，不展开成两两的边 */
+            public Shared(List<BitSet> conflictEdges, List<BitSet> conflictCliques, TreeDecomposition T){
+                this.T = T;
+                bags = T.nodes.values().toArray(new TDNode[0]);
+                int maxV = 0;
+                for (BitSet e : conflictEdges) maxV = Math.max(maxV, e.length());
+                for (TDNode b : bags) for (int g : b.bagElems) maxV = Math.max(maxV, g + 1);
+
+                // 倒排表：vertex -> 袋下标（两遍：先计数再填充）
+                int[] deg = new int[maxV];
+                for (TDNode b : bags) for (int g : b.bagElems) deg[g]++;
+                bagsOf = new int[maxV][];
+                for (int v = 0; v < maxV; v++) bagsOf[v] = new int[deg[v]];
+                Arrays.fill(deg, 0);
+                conflictIn = new ArrayList<>(bags.length);
+                for (int i = 0; i < bags.length; i++) {
+                    bags[i].index = i;
+                    conflictIn.add(new ArrayList<>());
+                    for (int g : bags[i].bagElems) bagsOf[g][deg[g]++] = i;
+                }
+
+                int[] hits = new int[bags.length];
+                int[] touched = new int[bags.length];
+                for (BitSet e : conflictEdges) assignEdge(e, bagsOf, hits, touched, conflictIn);
+                cliqueIn = assignCliques(conflictCliques, bags, bagsOf, hits, touched);
+
+                int[] local = new int[maxV];
+                Arrays.fill(local, -1);
+                for (TDNode b : bags) {
+                    for (int i = 0; i < b.bagElems.length; i++) local[b.bagElems[i]] = i;
+                    for (int idx = 0; idx < b.children.size(); idx++) {
+                        TDNode c = b.children.get(idx);
+                        bcMap.put(pack(b.id, idx), new BCMapping(c, local));
+                    }
+                    for (int g : b.bagElems) local[g] = -1;
+                }
+
+                // 后序（显式栈，深树不爆栈）
+                postOrder = new int[bags.length];
+                int k = bags.length;
+                Deque<TDNode> st = new ArrayDeque<>();
+                st.push(T.root);
+                while (!st.isEmpty()) {
+                    TDNode u = st.pop();
+                    postOrder[--k] = u.index;
+                    for (TDNode c : u.children) st.push(c);
+                }
+
+                parent = new int[bags.length];
+                childIdx = new int[bags.length];
+                Arrays.fill(parent, -1);
+                for (TDNode b : bags) {
+                    for (int i = 0; i < b.children.size(); i++) {
+                        parent[b.children.get(i).index] = b.index;
+                        childIdx[b.children.get(i).index] = i;
+                    }
+                }
+                // 逆后序是先序：顶点第一次出现的袋即其最高袋，子树顶点数 = 子树内各袋“最高于此”的顶点数之和
+                subVerts = new int[bags.length];
+                boolean[] seen = new boolean[maxV];
+                for (int i = bags.length - 1; i >= 0; i--) {
+                    int u = postOrder[i];
+                    for (int g : bags[u].bagElems) if (!seen[g]) { seen[g] = true; subVerts[u]++; }
+                }
+                for (int u : postOrder) if (parent[u] >= 0) subVerts[parent[u]] += subVerts[u];
+                for (int u = 0; u < bags.length; u++) { // 加上与父袋共享、最高袋在上方的顶点
+                    if (parent[u] < 0) continue;
+                    for (int g : bags[u].bagElems) for (int h : bags[parent[u]].bagElems) if (g == h) subVerts[u]++;
+                }
+            }
+        }
+
+        static void assignEdge(BitSet e, int[][] bagsOf, int[] hits, int[] touched, List<List<BitSet>> into){
+            int k = e.cardinality();
+            if (k == 0) { // 空边被任何袋包含
+                for (List<BitSet> l : into) l.add(e);
+                return;
+            }
+            int nt = 0;
+            for (int v = e.nextSetBit(0); v >= 0; v = e.nextSetBit(v + 1)) {
+                if (v >= bagsOf.length) continue; // 不在任何袋中 -> 命中数凑不满 k
+                for (int i : bagsOf[v]) if (hits[i]++ == 0) touched[nt++] = i;
+            }
+            for (int t = 0; t < nt; t++) {
+                int i = touched[t];
+                if (hits[i] == k) into.get(i).add(e);
+                hits[i] = 0;
+            }
+        }
+
+        private static int[][] assignCliques(List<BitSet> cliques, TDNode[] bags, int[][] bagsOf, int[] hits, int[] touched){
+            List<List<Integer>> per = new ArrayList<>(bags.length);
+            for (int i = 0; i < bags.length; i++) per.add(new ArrayList<>());
+            for (BitSet k : cliques) {
+                int nt = 0;
+                for (int v = k.nextSetBit(0); v >= 0; v = k.nextSetBit(v + 1)) {
+                    if (v >= bagsOf.length) continue;
+                    for (int i : bagsOf[v]) if (hits[i]++ == 0) touched[nt++] = i;
+                }
+                for (int t = 0; t < nt; t++) {
+                    int i = touched[t];
+                    if (hits[i] >= 2) {
+                        int m = 0;
+                        int[] elems = bags[i].bagElems;
+                        for (int j = 0; j < elems.length; j++) if (k.get(elems[j])) m |= 1 << j;
+                        per.get(i).add(m);
+                    }
+                    hits[i] = 0;
+                }
+            }
+            int[][] out = new int[bags.length][];
+            for (int i = 0; i < bags.length; i++) out[i] = per.get(i).stream().mapToInt(Integer::intValue).toArray();
+            return out;
+        }
+
+
+        static long pack(int a, int b){ return (((long)a) << 32) ^ (b & 0xffffffffL); }
         private static int liftSubmask(int idx, int freeMask){
             int res = 0, cnt = 0;
             for (int bit = 0; bit < 31; bit++) {
@@ -189,28 +792,23 @@ public class Dynmaic_Programming_Based_for_CQA {
         }
 
 
-        private static final class BCMapping {
+        static final class BCMapping {
             final int[] interToBBit, interToCBit;
             final int maskBInter, maskCminusB;
-            BCMapping(TDNode b, TDNode c, Map<Integer,Integer> bLocal, Map<Integer,Integer> cLocal){
-                List<Integer> inter = new ArrayList<>();
-                Set<Integer> setB = new HashSet<>();
-                for (int x : b.bagElems) setB.add(x);
-                for (int y : c.bagElems) if (setB.contains(y)) inter.add(y);
-
-                interToBBit = new int[inter.size()];
-                interToCBit = new int[inter.size()];
-                int mb=0, mc=0;
-                for (int i = 0; i < inter.size(); i++) {
-                    int g = inter.get(i);
-                    int bb = bLocal.get(g), cb = cLocal.get(g);
-                    interToBBit[i] = bb; interToCBit[i] = cb;
+            /** bLocal：父袋的 全局 id -> 局部位（不在父袋中为 -1） */
+            BCMapping(TDNode c, int[] bLocal){
+                int cnt = 0;
+                for (int y : c.bagElems) if (bLocal[y] >= 0) cnt++;
+                interToBBit = new int[cnt];
+                interToCBit = new int[cnt];
+                int mb=0, mc=0, mCnotB=0, i=0;
+                for (int cb = 0; cb < c.bagElems.length; cb++) {
+                    int bb = bLocal[c.bagElems[cb]];
+                    if (bb < 0) { mCnotB |= (1 << cb); continue; } // c \ b
+                    interToBBit[i] = bb; interToCBit[i] = cb; i++;
                     mb |= (1 << bb); mc |= (1 << cb);
                 }
                 maskBInter = mb;
-                // c \ b
-                int mCnotB = 0;
-                for (int i = 0; i < c.bagElems.length; i++) if (!setB.contains(c.bagElems[i])) mCnotB |= (1 << i);
                 maskCminusB = mCnotB;
             }
             int interMaskBToInterMask(int maskB){
@@ -0,0 +1,81 @@
+package thesis.src;
+
+import java.util.*;
+
+/**
+ * 二元边集（键 a<<32|b，见 Main.cliqueExpandInto）：键按插入顺序紧排在 long[] 里，
+ * 另用 int[] 开放寻址存 下标+1（0 为空槽）；每条边约 16 字节，没有 Long 装箱与 HashMap 节点。
+ * 遍历按插入顺序（.gr 的边行因此与发现顺序一致）；只增不删。
+ */
+final class EdgeSet extends AbstractSet<Long> {
+
+    private long[] keys = new long[16];
+    private int size;
+    private int[] table = new int[32];
+
+    EdgeSet(){}
+
+    EdgeSet(Collection<Long> c){ addAll(c); }
+
+    @Override
+    public boolean add(Long e){ return add(e.longValue()); }
+
+    boolean add(long e){
+        int mask = table.length - 1;
+        for (int slot = hash(e) & mask; ; slot = (slot + 1) & mask) {
+            int i = table[slot] - 1;
+            if (i < 0) {
+                if (size == keys.length) keys = Arrays.copyOf(keys, size * 2);
+                keys[size++] = e;
+                table[slot] = size;
+                break;
+            }
+            if (keys[i] == e) return false;
+        }
+        if (size * 2 > table.length) rehash();
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o){ return o instanceof Long e && contains(e.longValue()); }
+
+    boolean contains(long e){
+        int mask = table.length - 1;
+        for (int slot = hash(e) & mask; ; slot = (slot + 1) & mask) {
+            int i = table[slot] - 1;
+            if (i < 0) return false;
+            if (keys[i] == e) return true;
+        }
+    }
+
+    @Override
+    public int size(){ return size; }
+
+    @Override
+    public Iterator<Long> iterator(){
+        return new Iterator<>() {
+            private int i = 0;
+            public boolean hasNext(){ return i < size; }
+            public Long next(){
+                if (i >= size) throw new NoSuchElementException();
+                return keys[i++];
+            }
+        };
+    }
+
+    private void rehash(){
+        int[] t = new int[table.length * 2];
+        int mask = t.length - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = hash(keys[i]) & mask;
+            while (t[slot] != 0) slot = (slot + 1) & mask;
+            t[slot] = i + 1;
+        }
+        table = t;
+    }
+
+    private static int hash(long e){
+        long h = e * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
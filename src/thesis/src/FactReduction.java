@@ -0,0 +1,93 @@
+package thesis.src;
+
+import java.util.*;
+
+/**
+ * 进树分解 / DP 之前的事实级化简（作用在 Prop.10 之后的联合图上，id 均为 1 基原始行号）。
+ * DP 数的是 U 上 Ec 的极大独立集 R（repair）中不含任何 Es 边的个数，下面两类点可以精确删掉：
+ *  - 无冲突点 v（U 内没有 Ec 边）：v 必在每个 R 中。Es 边 {v,w} 变成一元边 {w}；
+ *    若某条 Es 边只剩无冲突点，则每个 R 都满足查询，结果直接为 0。
+ *  - 假孪生 u,v（Ec 邻域相同且非空，必然不相邻）：对任意 R 有 u∈R ⇔ v∈R，
+ *    所以 v 并入代表 u，Es 边里的 v 换成 u。
+ * 两种删除在计数上的因子都是 1，化简后图上的 NUMBERFALSIFY 与原图相同。
+ * 冲突团（ConflictGraph）的成员两两相邻，不可能是假孪生，只参与“是否无冲突”的判断。
+ */
+final class FactReduction {
+
+    /** 无冲突点在 rep 中的标记 */
+    static final int CONFLICT_FREE = 0;
+
+    final Set<Integer> nodes = new HashSet<>();
+    ConflictGraph conflicts;
+    final Set<Long> solutionEdges = new EdgeSet();
+    final Set<Integer> solutionSingletons = new TreeSet<>();
+    /** 被删顶点 -> 代表顶点（无冲突点映射到 CONFLICT_FREE） */
+    final Map<Integer,Integer> rep = new HashMap<>();
+    int conflictFree = 0, twins = 0;
+    /** 某条解边全由无冲突点组成：所有 repair 都满足查询 */
+    boolean forcedZero = false;
+
+    /**
+     * @param nodes         联合图保留的顶点集合 U
+     * @param conflicts     冲突图（可含 U 外的边与团成员，会被忽略）
+     * @param solutionEdges 解图二元边
+     */
+    static FactReduction reduce(Set<Integer> nodes, ConflictGraph conflicts, Set<Long> solutionEdges){
+        FactReduction r = new FactReduction();
+        ConflictGraph inU = conflicts.within(nodes);
+        Map<Integer,List<Integer>> adj = new HashMap<>();
+        for(long e: inU.pairs){
+            int a=(int)(e>>>32), b=(int)(e & 0xffffffffL);
+            adj.computeIfAbsent(a, k->new ArrayList<>()).add(b);
+            adj.computeIfAbsent(b, k->new ArrayList<>()).add(a);
+        }
+        Set<Integer> inClique = new HashSet<>();
+        for(int[] c: inU.cliques) for(int v: c) inClique.add(v);
+
+        // 按排序后的邻域分组：第一个出现者（最小 id）做代表
+        Map<List<Integer>,Integer> bySig = new HashMap<>();
+        for(int v: new TreeSet<>(nodes)){
+            List<Integer> nb = adj.get(v);
+            if(inClique.contains(v)){ r.nodes.add(v); continue; }
+            if(nb == null){ r.rep.put(v, CONFLICT_FREE); r.conflictFree++; continue; }
+            Collections.sort(nb);
+            Integer u = bySig.putIfAbsent(nb, v);
+            if(u != null){ r.rep.put(v, u); r.twins++; }
+            else r.nodes.add(v);
+        }
+
+        r.conflicts = inU.within(r.nodes);
+        for(long e: solutionEdges){
+            int a = r.map((int)(e>>>32)), b = r.map((int)(e & 0xffffffffL));
+            if(a < 0 || b < 0) continue; // U 之外
+            if(a == CONFLICT_FREE && b == CONFLICT_FREE){ r.forcedZero = true; continue; }
+            if(a == CONFLICT_FREE || a == b) r.solutionSingletons.add(b);
+            else if(b == CONFLICT_FREE) r.solutionSingletons.add(a);
+            else r.solutionEdges.add(a<b ? (((long)a<<32) | b) : (((long)b<<32) | a));
+        }
+        return r;
+    }
+
+    /** 顶点 -> 化简后的顶点；无冲突点为 CONFLICT_FREE，U 之外为 -1 */
+    int map(int v){
+        if(nodes.contains(v)) return v;
+        Integer u = rep.get(v);
+        return u == null ? -1 : u;
+    }
+
+    /** 超边按 map 改写（去掉无冲突点、孪生换成代表、去重排序）；U 之外的超边返回 null */
+    int[] mapHyperedge(int[] he){
+        TreeSet<Integer> out = new TreeSet<>();
+        for(int v: he){
+            int u = map(v);
+            if(u < 0) return null;
+            if(u != CONFLICT_FREE) out.add(u);
+        }
+        return out.stream().mapToInt(x->x).toArray();
+    }
+
+    String summary(){
+        return "conflict-free=" + conflictFree + " twins=" + twins + " remaining=" + nodes.size()
+                + (forcedZero ? " (query holds in every repair)" : "");
+    }
+}
@@ -101,7 +101,7 @@ public class GraphIO {
                 }
             }
         }
-        return new Dynmaic_Programming_Based_for_CQA.TreeDecomposition(bags.get(rootId));
+        return TdCostModel.plan(new Dynmaic_Programming_Based_for_CQA.TreeDecomposition(bags.get(rootId)));   // 按代价模型换根、排孩子
     }
 
     /** 可选：校验 Ec∪Es 的每条（超）边是否被某个袋覆盖 */
@@ -110,6 +110,7 @@ public class GraphIO {
         List<Dynmaic_Programming_Based_for_CQA.TDNode> bags = new ArrayList<>(TD.nodes.values());
         List<BitSet> all = new ArrayList<>();
         all.addAll(H.conflictEdges); all.addAll(H.solutionEdges);
+        all.addAll(H.conflictCliques); // 团的两两边都被覆盖 ⇔ 整个团落在某个袋里（Helly）
         for (int i = 0; i < all.size(); i++) {
             BitSet e = all.get(i);
             boolean covered = false;
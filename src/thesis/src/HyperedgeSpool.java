@@ -0,0 +1,224 @@
+package thesis.src;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 超边流（1 基、升序 id）：边一发现就写入，按 id 内容精确去重（int[] 开放寻址，无字符串 key）。
+ * 内存里的整数超过预算时，把当前块排序去重后溢写成二进制 run 文件；
+ * 遍历时若没有溢写则按发现顺序输出，否则对所有 run 做多路归并 + 去重。
+ * 可重复遍历；用完 close() 删除 run 文件，并关闭尚未读完的归并游标（提前停止遍历的消费者也不会漏句柄）。
+ * 首次遍历把残余块落盘之后 spool 只读，此后可以被多个线程同时遍历（如 CqaService 的并发查询）。
+ */
+final class HyperedgeSpool implements Iterable<int[]>, Closeable {
+
+    /** 内存块上限（int 个数），可用 -Dcqa.spool.budget 调整 */
+    static final int DEFAULT_BUDGET = Integer.getInteger("cqa.spool.budget", 1 << 22);
+
+    private final Path spillDir;
+    private final int budget;
+    private final List<Path> runs = new ArrayList<>();
+    /** 尚未读完的归并游标；只读后的并发遍历会同时登记 / 注销 */
+    private final Set<MergeIterator> openMerges = ConcurrentHashMap.newKeySet();
+
+    // 当前块：[len, id1..idk] 紧排；table 存 offset+1，0 为空槽
+    private int[] buf = new int[1024];
+    private int used = 0, count = 0;
+    private int[] table = new int[1 << 10];
+
+    HyperedgeSpool(Path spillDir){ this(spillDir, DEFAULT_BUDGET); }
+    HyperedgeSpool(Path spillDir, int budget){ this.spillDir = spillDir; this.budget = Math.max(budget, 16); }
+
+    /** 追加一条（已排序的）超边；当前块内的重复直接丢弃，跨块重复在归并时去掉。 */
+    void add(int[] ids){
+        int h = hash(ids, 0, ids.length);
+        int mask = table.length - 1;
+        for (int slot = h & mask; ; slot = (slot + 1) & mask) {
+            int off = table[slot] - 1;
+            if (off < 0) { table[slot] = append(ids) + 1; break; }
+            if (sameAt(off, ids)) return;
+        }
+        if (++count * 2 > table.length) rehash();
+        if (used >= budget) spill();
+    }
+
+    boolean spilled(){ return !runs.isEmpty(); }
+
+    @Override
+    public Iterator<int[]> iterator(){
+        if (runs.isEmpty()) return new BufIterator();
+        if (count > 0) spill(); // 收尾：把残余块也落成 run，之后只读 run
+        return new MergeIterator();
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (MergeIterator m : new ArrayList<>(openMerges)) m.close();
+        for (Path p : runs) Files.deleteIfExists(p);
+        runs.clear();
+    }
+
+    /* ---------- 内存块 ---------- */
+
+    private int append(int[] ids){
+        if (used + ids.length + 1 > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, used + ids.length + 1));
+        int off = used;
+        buf[used++] = ids.length;
+        System.arraycopy(ids, 0, buf, used, ids.length);
+        used += ids.length;
+        return off;
+    }
+
+    private boolean sameAt(int off, int[] ids){
+        if (buf[off] != ids.length) return false;
+        for (int i = 0; i < ids.length; i++) if (buf[off + 1 + i] != ids[i]) return false;
+        return true;
+    }
+
+    private void rehash(){
+        int[] t = new int[table.length * 2];
+        int mask = t.length - 1;
+        for (int off = 0; off < used; off += buf[off] + 1) {
+            int slot = hash(buf, off + 1, buf[off]) & mask;
+            while (t[slot] != 0) slot = (slot + 1) & mask;
+            t[slot] = off + 1;
+        }
+        table = t;
+    }
+
+    private static int hash(int[] a, int from, int len){
+        int h = len;
+        for (int i = from; i < from + len; i++) h = h * 0x9E3779B1 + a[i];
+        return h ^ (h >>> 16);
+    }
+
+    /** 当前块排序（先长度、再字典序）后写成 run 文件，并清空内存块 */
+    private void spill(){
+        int[] offs = new int[count];
+        int c = 0;
+        for (int off = 0; off < used; off += buf[off] + 1) offs[c++] = off;
+        sortOffsets(offs, new int[count], 0, count);
+        try {
+            Files.createDirectories(spillDir);
+            Path run = Files.createTempFile(spillDir, "hyperedges-", ".run");
+            run.toFile().deleteOnExit();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run)))) {
+                for (int off : offs) for (int i = 0; i <= buf[off]; i++) out.writeInt(buf[off + i]);
+            }
+            runs.add(run);
+        } catch (IOException e) {
+            throw new UncheckedIOException("hyperedge spill failed", e);
+        }
+        used = 0; count = 0;
+        Arrays.fill(table, 0);
+    }
+
+    /** offs[lo, hi) 按所指的超边归并排序（不装箱），tmp 为同长的缓冲 */
+    private void sortOffsets(int[] offs, int[] tmp, int lo, int hi){
+        if (hi - lo < 2) return;
+        int mid = (lo + hi) >>> 1;
+        sortOffsets(offs, tmp, lo, mid);
+        sortOffsets(offs, tmp, mid, hi);
+        if (compareAt(buf, offs[mid - 1], buf, offs[mid]) <= 0) return; // 两半已有序
+        System.arraycopy(offs, lo, tmp, lo, hi - lo);
+        for (int i = lo, j = mid, k = lo; k < hi; k++)
+            offs[k] = (j >= hi || i < mid && compareAt(buf, tmp[i], buf, tmp[j]) <= 0) ? tmp[i++] : tmp[j++];
+    }
+
+    private static int compareAt(int[] a, int ao, int[] b, int bo){
+        if (a[ao] != b[bo]) return Integer.compare(a[ao], b[bo]);
+        for (int i = 1; i <= a[ao]; i++) if (a[ao + i] != b[bo + i]) return Integer.compare(a[ao + i], b[bo + i]);
+        return 0;
+    }
+
+    private final class BufIterator implements Iterator<int[]> {
+        private int off = 0;
+        public boolean hasNext(){ return off < used; }
+        public int[] next(){
+            if (!hasNext()) throw new NoSuchElementException();
+            int[] e = Arrays.copyOfRange(buf, off + 1, off + 1 + buf[off]);
+            off += buf[off] + 1;
+            return e;
+        }
+    }
+
+    /** run 的多路归并；读完、出错或 close() 时关闭全部 run 流 */
+    private final class MergeIterator implements Iterator<int[]>, Closeable {
+        private final PriorityQueue<RunReader> pq = new PriorityQueue<>((x, y) -> compareAt(x.head, 0, y.head, 0));
+        private int[] last = null, next = null;
+
+        MergeIterator(){
+            try {
+                for (Path p : runs) {
+                    RunReader r = new RunReader(p);
+                    if (r.head != null) pq.add(r);
+                }
+            } catch (IOException e) {
+                close();
+                throw new UncheckedIOException(e);
+            }
+            openMerges.add(this);
+            step();
+        }
+
+        private void step(){
+            next = null;
+            try {
+                while (!pq.isEmpty()) {
+                    RunReader r = pq.poll();
+                    int[] h = r.head;
+                    if (r.advance()) pq.add(r);
+                    if (last != null && compareAt(last, 0, h, 0) == 0) continue;
+                    last = h; next = h;
+                    return;
+                }
+            } catch (IOException e) {
+                close();
+                throw new UncheckedIOException(e);
+            }
+            close();
+        }
+
+        public boolean hasNext(){ return next != null; }
+        public int[] next(){
+            if (next == null) throw new NoSuchElementException();
+            int[] e = Arrays.copyOfRange(next, 1, next.length);
+            step();
+            return e;
+        }
+
+        @Override
+        public void close(){
+            for (RunReader r : pq) r.close();
+            pq.clear();
+            next = null;
+            openMerges.remove(this);
+        }
+    }
+
+    /** 单个 run 的读游标，head 为 [len, ids...]，读完为 null */
+    private static final class RunReader {
+        final DataInputStream in;
+        int[] head;
+        RunReader(Path p) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(p)));
+            try { advance(); }
+            catch (IOException e) { close(); throw e; }
+        }
+        /** 读下一条到 head；到文件尾时关闭并返回 false */
+        boolean advance() throws IOException {
+            int len;
+            try { len = in.readInt(); }
+            catch (EOFException eof) { close(); head = null; return false; }
+            head = new int[len + 1];
+            head[0] = len;
+            for (int i = 1; i <= len; i++) head[i] = in.readInt();
+            return true;
+        }
+        void close(){
+            try { in.close(); } catch (IOException ignored) { }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package thesis.src;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * 直接在超图上做消去式树分解，不先团化成原始图。
+ *  - 消去 v 时，袋 = v ∪ (v 所有关联超边的并)，这些超边合并成一条新超边 f = 袋 \ {v}
+ *  - 贪心选点：最小邻域；并列时取关联超边最少者（近似更小的边覆盖 / 分数宽度）
+ *  - 新超边 f 被后面第一个消去它上面顶点的袋“消费”，该袋即为父袋
+ * 每条输入超边都落在消去其第一个顶点时的袋里，所以 GraphIO.assertEdgeCoverage 必然通过。
+ */
+final class HypergraphTD {
+
+    static final class Result {
+        final List<int[]> bags = new ArrayList<>();   // 1 基原始 id，升序
+        final List<Integer> parent = new ArrayList<>(); // -1 = 根
+        int width(){ int w = 0; for (int[] b : bags) w = Math.max(w, b.length); return w - 1; }
+    }
+
+    /** vertices：需要出现在分解中的顶点（含孤立点）；hyperedges：1 基超边 */
+    static Result decompose(Collection<Integer> vertices, Iterable<int[]> hyperedges){
+        // 稠密编号
+        int[] ids = vertices.stream().mapToInt(Integer::intValue).distinct().sorted().toArray();
+        Map<Integer,Integer> dense = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) dense.put(ids[i], i);
+        int n = ids.length;
+
+        List<int[]> edges = new ArrayList<>();
+        List<Integer> owner = new ArrayList<>();      // 产生该超边的袋，-1 = 输入边
+        List<List<Integer>> inc = new ArrayList<>();
+        for (int v = 0; v < n; v++) inc.add(new ArrayList<>());
+        for (int[] he : hyperedges) {
+            int[] e = new int[he.length];
+            for (int i = 0; i < he.length; i++) {
+                Integer d = dense.get(he[i]);
+                if (d == null) throw new IllegalArgumentException("hyperedge vertex " + he[i] + " not in vertex set");
+                e[i] = d;
+            }
+            addEdge(edges, owner, inc, e, -1);
+        }
+
+        boolean[] eliminated = new boolean[n];
+        BitSet dead = new BitSet();
+        int[] mark = new int[n];
+        int stamp = 0;
+        int[] deg = new int[n];
+        PriorityQueue<long[]> pq = new PriorityQueue<>((x, y) -> x[0] != y[0] ? Long.compare(x[0], y[0]) : Long.compare(x[1], y[1]));
+        for (int v = 0; v < n; v++) {
+            deg[v] = neighbourhood(v, edges, inc, dead, mark, ++stamp, null);
+            pq.add(key(v, deg[v], inc.get(v).size()));
+        }
+
+        Result res = new Result();
+        int lastRoot = -1;
+        while (!pq.isEmpty()) {
+            long[] top = pq.poll();
+            int v = (int) top[1];
+            if (eliminated[v] || top[0] != key(v, deg[v], inc.get(v).size())[0]) continue; // 过期条目
+
+            List<Integer> nb = new ArrayList<>();
+            neighbourhood(v, edges, inc, dead, mark, ++stamp, nb);
+            int bagIdx = res.bags.size();
+            int[] bag = new int[nb.size() + 1];
+            bag[0] = ids[v];
+            for (int i = 0; i < nb.size(); i++) bag[i + 1] = ids[nb.get(i)];
+            Arrays.sort(bag);
+            res.bags.add(bag);
+            res.parent.add(-1);
+
+            // 消费 v 上所有活超边；由袋产生的那些，其产生袋挂到本袋下
+            for (int ei : inc.get(v)) {
+                if (dead.get(ei)) continue;
+                dead.set(ei);
+                if (owner.get(ei) >= 0) res.parent.set(owner.get(ei), bagIdx);
+            }
+            eliminated[v] = true;
+
+            if (nb.isEmpty()) { // 连通分量的根：串成一条链，保证整体是一棵树
+                if (lastRoot >= 0) res.parent.set(lastRoot, bagIdx);
+                lastRoot = bagIdx;
+                continue;
+            }
+            int[] f = nb.stream().mapToInt(Integer::intValue).toArray();
+            for (int u : f) inc.get(u).removeIf(dead::get);
+            addEdge(edges, owner, inc, f, bagIdx);
+            for (int u : f) {
+                deg[u] = neighbourhood(u, edges, inc, dead, mark, ++stamp, null);
+                pq.add(key(u, deg[u], inc.get(u).size()));
+            }
+        }
+        return res;
+    }
+
+    private static void addEdge(List<int[]> edges, List<Integer> owner, List<List<Integer>> inc, int[] e, int own){
+        int ei = edges.size();
+        edges.add(e);
+        owner.add(own);
+        for (int v : e) inc.get(v).add(ei);
+    }
+
+    /** |N(v)|（活超边的并，去掉 v 自身）；out 非空时顺便收集邻居 */
+    private static int neighbourhood(int v, List<int[]> edges, List<List<Integer>> inc, BitSet dead,
+                                     int[] mark, int stamp, List<Integer> out){
+        int d = 0;
+        mark[v] = stamp;
+        for (int ei : inc.get(v)) {
+            if (dead.get(ei)) continue;
+            for (int u : edges.get(ei)) {
+                if (mark[u] == stamp) continue;
+                mark[u] = stamp; d++;
+                if (out != null) out.add(u);
+            }
+        }
+        return d;
+    }
+
+    private static long[] key(int v, int deg, int incCount){
+        return new long[]{ ((long) deg << 32) | incCount, v };
+    }
+
+    /** 写成 PACE .td（与 ExactTW 输出同格式，GraphIO.loadTreeDecomposition 可直接读） */
+    static void writeTd(Result r, int nVertices, Path out) throws IOException {
+        Files.createDirectories(out.getParent());
+        try (BufferedWriter bw = Files.newBufferedWriter(out)) {
+            bw.write("s td " + r.bags.size() + " " + (r.width() + 1) + " " + nVertices); bw.newLine();
+            for (int i = 0; i < r.bags.size(); i++) {
+                StringBuilder sb = new StringBuilder("b ").append(i + 1);
+                for (int v : r.bags.get(i)) sb.append(' ').append(v);
+                bw.write(sb.toString()); bw.newLine();
+            }
+            for (int i = 0; i < r.bags.size(); i++) {
+                int p = r.parent.get(i);
+                if (p >= 0) { bw.write((i + 1) + " " + (p + 1)); bw.newLine(); }
+            }
+        }
+    }
+}
@@ -8,23 +8,60 @@ import io.github.twalgor.main.ExactTW;
 
 public class Main {
 
-    private static final String CSV_DIR   = "./csv_inputs";
-    private static final String FD_DIR    = "./fd";
-    private static final String DC_DIR    = "./dc";
-    private static final String QUERY_DIR = "./query";
-    private static final String OUT_DIR   = "./result";
+    static final String CSV_DIR   = "./csv_inputs";
+    static final String FD_DIR    = "./fd";
+    static final String DC_DIR    = "./dc";
+    static final String QUERY_DIR = "./query";
+    static final String OUT_DIR   = "./result";
+
+    /** 树分解方式：exact = 团化后调 ExactTW；hyper = HypergraphTD 直接在超图上消去；auto = 出现宽超边时走 hyper */
+    static final String TD_MODE   = System.getProperty("cqa.td", "auto");
+    private static final int WIDE_ARITY   = Integer.getInteger("cqa.td.wideArity", 4);
+    /** 分解前删除无冲突点与假孪生（FactReduction），-Dcqa.reduce=false 关闭 */
+    private static final boolean REDUCE   = !"false".equals(System.getProperty("cqa.reduce"));
+    /** 纯 FD 且化简后冲突图为团的不交并时按块计数（BlockCounter），-Dcqa.block=false 关闭 */
+    static final boolean BLOCK    = !"false".equals(System.getProperty("cqa.block"));
+    /** 冲突超边与树分解的跨运行缓存（ArtifactCache），-Dcqa.cache=false 关闭 */
+    private static final ArtifactCache CACHE = "false".equals(System.getProperty("cqa.cache"))
+            ? null : new ArtifactCache(Path.of(OUT_DIR, "cache"));
+    /** -Dcqa.approx=true 时，分解宽度 ≥ cqa.approx.width 的表改用 ApproxCounter 近似计数 */
+    private static final boolean APPROX  = Boolean.getBoolean("cqa.approx");
+    private static final int APPROX_WIDTH = Integer.getInteger("cqa.approx.width", 20);
+    /**
+     * DP 前按分解预估（TdCostModel.estimate，写到 base_solution_estimate.txt）；超出 -Dcqa.budget.ms / -Dcqa.budget.mb
+     * （0 = 不限）时按 -Dcqa.budget.action 处理：approx（默认）改用 ApproxCounter，reject 不计数并报错
+     */
+    private static final long BUDGET_MS = Long.getLong("cqa.budget.ms", 0L);
+    private static final long BUDGET_MB = Long.getLong("cqa.budget.mb", 0L);
+    private static final String BUDGET_ACTION = System.getProperty("cqa.budget.action", "approx");
+    /** -Dcqa.sample=k：DP 之后按表均匀抽 k 个被计数的 repair（cqa.sample.all=true 时不限于证伪的） */
+    private static final long SAMPLES    = Long.getLong("cqa.sample", 0L);
+    private static final boolean SAMPLE_ALL = Boolean.getBoolean("cqa.sample.all");
+    private static final long SAMPLE_SEED = Long.getLong("cqa.sample.seed", 1L);
+    /**
+     * -Dcqa.measures=true：DP 改走 SemiringDp，一趟同时算 repair 总数、证伪数与查询成立的比例（写 base_cqa_measures.txt）；
+     * 给了 -Dcqa.weight.column=列名 时隐含开启，另算按该列权重（缺值按 1）加权的两个量
+     */
+    static final String WEIGHT_COLUMN = System.getProperty("cqa.weight.column");
+    static final boolean MEASURES = Boolean.getBoolean("cqa.measures") || WEIGHT_COLUMN != null;
+    /** 读 CSV 时只保留约束与查询引用到的列，-Dcqa.project=false 关闭 */
+    static final boolean PROJECT  = !"false".equals(System.getProperty("cqa.project"));
 
+    /** 一行：只存投影后的列，列名 -> 下标的映射由同一张表的所有行共享 */
     static class Fact {
-        final Map<String,String> map = new HashMap<>();
-        Fact(String[] header, String[] values){
-            for(int i=0;i<header.length;i++){
-                String v = (i<values.length ? values[i] : null);
-                String hk = header[i]==null? null : header[i].trim();
-                if(hk!=null && !hk.isEmpty() && hk.charAt(0)=='\uFEFF') hk = hk.substring(1);
-                map.put(hk, v==null? null : normValue(v));
-            }
-        }
-        String get(String k){ return map.get(k); }
+        final Map<String,Integer> cols;
+        final String[] vals;
+        Fact(Map<String,Integer> cols, String[] vals){ this.cols=cols; this.vals=vals; }
+        String get(String k){ Integer i = cols.get(k); return i==null? null : vals[i]; }
+    }
+
+    /** 一张表：readFacts 读出的行，旁边挂着它的列索引（按列按需建立的 值 -> 行位图；选择谓词与常量原子走位图 and / or） */
+    static final class Facts {
+        final List<Fact> rows;
+        final ColumnIndex index;
+        Facts(List<Fact> rows){ this.rows = rows; this.index = new ColumnIndex(rows); }
+        int size(){ return rows.size(); }
+        Fact get(int i){ return rows.get(i); }
     }
 
     /** FD: 支持多 RHS 属性。 */
@@ -157,22 +194,112 @@ public class Main {
 
 
 
-    static List<Fact> readFacts(Path csv) throws IOException{
+    static List<Fact> readFacts(Path csv) throws IOException{ return readFacts(csv, null); }
+
+    /**
+     * attrs 非 null 时只切分、保存其中的列（投影下推）；其余列按引号与逗号跳过，最后一个所需列之后整行不再扫描。
+     * 每个数据行都生成一个 Fact（缺的列为 null），所以行号与不投影时相同。
+     */
+    static List<Fact> readFacts(Path csv, Set<String> attrs) throws IOException{
         List<Fact> list=new ArrayList<>();
         try(BufferedReader br=Files.newBufferedReader(csv)){
             String header=br.readLine();
             if(header==null) return list;
             if(!header.isEmpty() && header.charAt(0)=='\uFEFF') header = header.substring(1);
             String[] h = parseCSVToArray(header);
+            Map<String,Integer> byName = new LinkedHashMap<>();          // 重名列：后者覆盖前者
+            for(int i=0;i<h.length;i++){
+                String hk = h[i].trim();
+                if(!hk.isEmpty() && hk.charAt(0)=='\uFEFF') hk = hk.substring(1);
+                byName.put(hk, i);
+            }
+            int[] slot = new int[h.length];                             // 原列 -> 存储下标，-1 = 不存
+            Arrays.fill(slot, -1);
+            Map<String,Integer> cols = new HashMap<>();
+            for(Map.Entry<String,Integer> e : byName.entrySet()){
+                if(attrs!=null && !attrs.contains(e.getKey())) continue;
+                slot[e.getValue()] = cols.size();
+                cols.put(e.getKey(), cols.size());
+            }
+            if(attrs!=null) System.out.println("[INFO] CSV projection: " + cols.size() + " of " + h.length + " columns kept");
             String line;
             while((line=br.readLine())!=null){
                 if(!line.isEmpty() && line.charAt(0)=='\uFEFF') line = line.substring(1);
-                list.add(new Fact(h, parseCSVToArray(line)));
+                list.add(new Fact(cols, parseCSVProjected(line, slot, cols.size())));
             }
         }
         return list;
     }
 
+    /** 同 parseCSVLine，但只为 slot[i] ≥ 0 的列建字符串（已做 normValue） */
+    static String[] parseCSVProjected(String line, int[] slot, int width){
+        String[] out = new String[width];
+        int last = -1;
+        for(int i=0;i<slot.length;i++) if(slot[i]>=0) last = i;
+        StringBuilder sb = new StringBuilder();
+        boolean inQuotes = false;
+        int col = 0;
+        for(int i=0;i<line.length() && col<=last;i++){
+            char c = line.charAt(i);
+            boolean want = slot[col]>=0;
+            if(c=='"'){
+                if(inQuotes && i+1<line.length() && line.charAt(i+1)=='"'){
+                    if(want) sb.append('"');
+                    i++;
+                }else{
+                    inQuotes = !inQuotes;
+                }
+            }else if(c==',' && !inQuotes){
+                if(want) out[slot[col]] = normValue(sb.toString());
+                sb.setLength(0);
+                col++;
+            }else if(want){
+                sb.append(c);
+            }
+        }
+        if(col<=last && slot[col]>=0) out[slot[col]] = normValue(sb.toString());
+        return out;
+    }
+
+    /** 约束与查询引用到的列名；selection 为简单选择型查询文件（每行 Attr=...）时一并收集其列 */
+    static Set<String> referencedAttrs(List<FD> fds, List<DCClause> dcs, List<BUCQ> queries, List<Path> selection) throws IOException{
+        Set<String> out = new HashSet<>();
+        for(FD fd : fds){ out.addAll(fd.lhs); out.addAll(fd.rhs); }
+        if(WEIGHT_COLUMN != null) out.add(WEIGHT_COLUMN);
+        for(DCClause c : dcs) addAtomAttrs(c.atoms, out);
+        for(BUCQ bu : queries) for(BCQ q : bu.disj) addAtomAttrs(q.atoms, out);
+        for(Path q : selection){
+            if(!Files.exists(q)) continue;
+            for(String l : Files.readAllLines(q)){
+                l = norm(l);
+                if(l.isEmpty() || l.startsWith("#") || !l.contains("=")) continue;
+                out.add(l.split("=")[0].trim());
+            }
+        }
+        return out;
+    }
+
+    private static void addAtomAttrs(List<DCAtom> atoms, Set<String> out){
+        for(DCAtom a : atoms){
+            out.add(a.lAttr);
+            if(!a.isConst) out.add(a.rAttr);
+        }
+    }
+
+    /** 权重列：1 基行号 -> 值；空值与非数值按 1（后者报一次 [WARN]） */
+    static Map<Integer,java.math.BigDecimal> readWeights(List<Fact> facts, String column){
+        Map<Integer,java.math.BigDecimal> w = new HashMap<>();
+        int bad = 0;
+        for(int i=0;i<facts.size();i++){
+            String v = facts.get(i).get(column);
+            if(v == null || v.isBlank()) continue;
+            try { w.put(i+1, new java.math.BigDecimal(v.trim())); }
+            catch(NumberFormatException e){ bad++; }
+        }
+        if(bad > 0) System.out.println("[WARN] " + bad + " non-numeric values in weight column " + column + "; weighted as 1.");
+        return w;
+    }
+
     static List<FD> readFD(Path fd) throws IOException{
         List<FD> list=new ArrayList<>();
         if(!Files.exists(fd)) return list;
@@ -254,16 +381,20 @@ public class Main {
 
     /** 解析 .query 为 BUCQ≠（若失败则返回空，主流程再决定是否回退） */
     static BUCQ readBUCQ(Path q) throws IOException {
+        if(!Files.exists(q)) return new BUCQ();
+        return parseBUCQ(Files.readAllLines(q));
+    }
+
+    /** 同 readBUCQ，但直接解析查询文本的各行（服务模式的请求体） */
+    static BUCQ parseBUCQ(List<String> lines){
         BUCQ res = new BUCQ();
-        if(!Files.exists(q)) return res;
 
         final Pattern ATOM = Pattern.compile(
                 "\\s*(t\\d+)\\.([A-Za-z0-9_ ()%-]+)\\s*(==|!=|<=|>=|=|<|>)\\s*"
                         + "(?:(t\\d+)\\.([A-Za-z0-9_ ()%-]+)|([+-]?\\d+(?:\\.\\d+)?)|\"([^\"]*)\"|'([^']*)')\\s*"
         );
 
-        // 读全文件，去掉注释与空行并做 norm
-        List<String> lines = Files.readAllLines(q);
+        // 去掉注释与空行并做 norm
         boolean hadContent = false;
         StringBuilder sb = new StringBuilder();
         for(String line : lines){
@@ -324,7 +455,7 @@ public class Main {
     }
 
     /** 选择型 query：每行 Attr=val1,val2,...；返回命中的 0-based 行号集合。 */
-    static Set<Integer> queryIdx(List<Fact> facts,Path q) throws IOException{
+    static Set<Integer> queryIdx(Facts facts,Path q) throws IOException{
         Set<Integer> idx=new HashSet<>();
         if(!Files.exists(q)) return idx;
         Map<String,Set<String>> cond=new HashMap<>();
@@ -344,14 +475,14 @@ public class Main {
             }
         }
         if(!hadAny) return idx;
-        for(int i=0;i<facts.size();i++){
-            Fact f=facts.get(i); boolean ok=true;
-            for(String k:cond.keySet()){
-                String v=f.get(k);
-                if(v==null||!cond.get(k).contains(v)){ ok=false; break; }
-            }
-            if(ok) idx.add(i);
+        ColumnIndex ci = facts.index;
+        RowBitmap hit = null;
+        for(Map.Entry<String,Set<String>> e: cond.entrySet()){
+            RowBitmap b = ci.in(e.getKey(), e.getValue());
+            hit = (hit==null)? b : hit.and(b);
+            if(hit.isEmpty()) break;
         }
+        hit.forEach(idx::add);
         return idx;
     }
 
@@ -374,114 +505,78 @@ public class Main {
         }
     }
 
-    static boolean violatesFD(FD fd, Fact f1, Fact f2){
-        for(String a: fd.lhs){
-            String v1=f1.get(a), v2=f2.get(a);
-            if(v1 == null || !v1.equals(v2)) return false;
-        }
-        boolean allNonNull = true;
-        boolean anyDiff = false;
-        for(String b: fd.rhs){
-            String r1=f1.get(b), r2=f2.get(b);
-            if(r1==null || r2==null) { allNonNull=false; break; }
-            if(!r1.equals(r2)) anyDiff = true;
+    /** 事实在 attrs 上的取值；有空值时返回 null */
+    static List<String> valuesOf(Fact f, List<String> attrs){
+        List<String> out = new ArrayList<>(attrs.size());
+        for(String a: attrs){
+            String v = f.get(a);
+            if(v == null) return null;
+            out.add(v);
         }
-        return allNonNull && anyDiff;
-    }
-
-    static boolean atomSat(DCAtom a, Map<String,Fact> asg){
-        Fact lf = asg.get(a.lVar);
-        if(lf==null) return false;
-        String v1 = lf.get(a.lAttr);
-        if(v1==null) return false;
-        if(a.isConst){
-            return cmp(v1, a.op, a.constVal);
-        }else{
-            Fact rf = asg.get(a.rVar);
-            if(rf==null) return false;
-            String v2 = rf.get(a.rAttr);
-            if(v2==null) return false;
-            return cmp(v1, a.op, v2);
-        }
-    }
-
-    static boolean clauseViolated(DCClause c, Map<String,Fact> asg){
-        for(DCAtom a: c.atoms) if(!atomSat(a, asg)) return false;
-        return true;
+        return out;
     }
 
-
     static class BuildResult {
-        List<int[]> hyperedges = new ArrayList<>();
+        final HyperedgeSpool hyperedges;
+        BuildResult(Path spillDir){ hyperedges = new HyperedgeSpool(spillDir); }
     }
 
-    static BuildResult buildConflictHyperedges(List<Fact> facts, List<FD> fds, List<DCClause> dcs, Set<Integer> filter){
+    /** 冲突超边（1 基、升序）边发现边写入 HyperedgeSpool，去重与溢写都在 spool 内完成。 */
+    static BuildResult buildConflictHyperedges(Facts facts, List<FD> fds, List<DCClause> dcs, Set<Integer> filter){
         List<Integer> idMap = (filter==null)? null : new ArrayList<>(new TreeSet<>(filter));
-        List<Fact> tg       = (filter==null)? facts : new ArrayList<>();
+        List<Fact> tg       = (filter==null)? facts.rows : new ArrayList<>();
         if(filter!=null) for(int id: idMap) tg.add(facts.get(id));
 
-        BuildResult res = new BuildResult();
-        Set<String> deDup  = new HashSet<>();
+        BuildResult res = new BuildResult(Path.of(OUT_DIR));
 
-        // FD -> 二元超边
-        for(int i=0;i<tg.size();i++){
-            for(int j=i+1;j<tg.size();j++){
-                Fact f1=tg.get(i), f2=tg.get(j);
-
-                int id1 = (filter==null)? i+1 : idMap.get(i)+1;
-                int id2 = (filter==null)? j+1 : idMap.get(j)+1;
-                int a = Math.min(id1,id2), b = Math.max(id1,id2);
-
-                for(FD fd: fds){
-                    if(violatesFD(fd, f1, f2)){
-                        String key = a+"-"+b;
-                        if(deDup.add(key)) res.hyperedges.add(new int[]{a, b});
-                    }
-                }
+        // FD -> 按 LHS 取值哈希分组（不做两两比较），组内再按 RHS 取值分类，不同类的事实两两冲突：
+        //   每类只有一个事实时整组是一个冲突团，作为一条超边写出（ConflictGraph 不展开）；否则逐对写二元边
+        for(FD fd: fds){
+            Map<List<String>, List<Integer>> groups = new LinkedHashMap<>();
+            for(int i=0;i<tg.size();i++){
+                List<String> key = valuesOf(tg.get(i), fd.lhs);
+                if(key != null) groups.computeIfAbsent(key, k->new ArrayList<>()).add(i);
             }
-        }
-
-        // DC -> k 元超边
-        for(DCClause c: dcs){
-            int k = c.vars.size();
-            int n = tg.size();
-            if(k==0) continue;
-            int[] comb = new int[k];
-            Arrays.fill(comb, -1);
-
-            buildComb(0, 0, k, n, comb, ()->{
-                Map<String,Fact> asg = new HashMap<>();
-                for(int t=0;t<k;t++){
-                    asg.put(c.vars.get(t), tg.get(comb[t]));
+            for(List<Integer> g: groups.values()){
+                if(g.size() < 2) continue;
+                Map<List<String>, List<Integer>> classes = new LinkedHashMap<>();
+                int members = 0;
+                for(int i: g){
+                    List<String> r = valuesOf(tg.get(i), fd.rhs); // RHS 有空值的事实不与任何事实冲突
+                    if(r == null) continue;
+                    classes.computeIfAbsent(r, k->new ArrayList<>()).add((filter==null)? i+1 : idMap.get(i)+1);
+                    members++;
                 }
-                if(clauseViolated(c, asg)){
-                    int[] ids = new int[k];
-                    for(int t=0;t<k;t++){
-                        int local = comb[t];
-                        int gid = (filter==null)? (local+1) : (idMap.get(local)+1);
-                        ids[t] = gid;
-                    }
+                if(classes.size() < 2) continue;
+                if(classes.size() == members && members >= ConflictGraph.CLIQUE_MIN){
+                    int[] ids = new int[members];
+                    int t = 0;
+                    for(List<Integer> c: classes.values()) ids[t++] = c.get(0);
                     Arrays.sort(ids);
-                    String key = Arrays.toString(ids);
-                    if(deDup.add(key)) res.hyperedges.add(ids);
+                    res.hyperedges.add(ids);
+                    continue;
                 }
-            });
+                List<List<Integer>> cl = new ArrayList<>(classes.values());
+                for(int x=0;x<cl.size();x++) for(int y=x+1;y<cl.size();y++){
+                    for(int a: cl.get(x)) for(int b: cl.get(y)) res.hyperedges.add(new int[]{Math.min(a,b), Math.max(a,b)});
+                }
+            }
         }
 
+        // DC -> k 元超边：DcSearch 按选择度排变量与原子、绑定即剪枝，对称的角色只生成一次
+        int[] domain = (filter==null)? null : idMap.stream().mapToInt(Integer::intValue).toArray();
+        for(DCClause c: dcs) DcSearch.violations(facts, c, domain, res.hyperedges::add);
+
         return res;
     }
 
-    interface CombHit { void hit(); }
-    static void buildComb(int pos, int start, int k, int n, int[] comb, CombHit cb){
-        if(pos==k){ cb.hit(); return; }
-        for(int i=start;i<=n-(k-pos);i++){
-            comb[pos]=i;
-            buildComb(pos+1, i+1, k, n, comb, cb);
-        }
+    static Set<Long> cliqueExpandToEdges(Iterable<int[]> hyperedges){
+        return cliqueExpandInto(new EdgeSet(), hyperedges);
     }
 
-    static Set<Long> cliqueExpandToEdges(List<int[]> hyperedges){
-        Set<Long> E = new HashSet<>();
+    /** 团化并入已有边集（可直接消费 HyperedgeSpool 流；EdgeSet 时不装箱） */
+    static Set<Long> cliqueExpandInto(Set<Long> E, Iterable<int[]> hyperedges){
+        EdgeSet P = (E instanceof EdgeSet x)? x : null;
         for(int[] he: hyperedges){
             if(he.length<2) continue;
             for(int i=0;i<he.length;i++){
@@ -489,7 +584,7 @@ public class Main {
                     int a=he[i], b=he[j];
                     if(a==b) continue;
                     long key = (a<b)? (((long)a<<32) | (long)b) : (((long)b<<32) | (long)a);
-                    E.add(key);
+                    if(P != null) P.add(key); else E.add(key);
                 }
             }
         }
@@ -505,7 +600,7 @@ public class Main {
         return V;
     }
 
-    static Set<Integer> singletonNodes(List<int[]> hyperedges){
+    static Set<Integer> singletonNodes(Iterable<int[]> hyperedges){
         Set<Integer> S = new HashSet<>();
         for(int[] he: hyperedges){
             if(he.length==1) S.add(he[0]);
@@ -513,30 +608,18 @@ public class Main {
         return S;
     }
 
-    /** Prop.10：仅保留与任一解节点连通的边；返回可达节点集。 */
-    static Set<Integer> keepOnlySolutionConnected(Set<Long> E, Set<Integer> solutionNodes){
-        Set<Integer> keep = new HashSet<>();
-        if(solutionNodes.isEmpty()){ E.clear(); return keep; }
+    /** Prop.10 之后仍保留的超边（整条落在 keep 内，与联合图的连通分量一致） */
+    static List<int[]> solutionConnectedHypers(Iterable<int[]> conflictHypers, List<int[]> solutionHypers, Set<Integer> keep){
+        List<int[]> out = new ArrayList<>();
+        for(int[] he: conflictHypers) if(he.length>0 && keep.contains(he[0])) out.add(he);
+        for(int[] he: solutionHypers) if(he.length>0 && keep.contains(he[0])) out.add(he);
+        return out;
+    }
 
-        Map<Integer,List<Integer>> g = new HashMap<>();
-        for(long e: E){
-            int a=(int)(e>>>32), b=(int)(e & 0xffffffffL);
-            g.computeIfAbsent(a, k->new ArrayList<>()).add(b);
-            g.computeIfAbsent(b, k->new ArrayList<>()).add(a);
-        }
-        Deque<Integer> dq = new ArrayDeque<>(solutionNodes);
-        keep.addAll(solutionNodes);
-        while(!dq.isEmpty()){
-            int u = dq.pollFirst();
-            for(int v: g.getOrDefault(u, Collections.emptyList())){
-                if(keep.add(v)) dq.addLast(v);
-            }
-        }
-        E.removeIf(e -> {
-            int a=(int)(e>>>32), b=(int)(e & 0xffffffffL);
-            return !(keep.contains(a) && keep.contains(b));
-        });
-        return keep;
+    static int maxArity(List<int[]> hyperedges){
+        int k = 0;
+        for(int[] he: hyperedges) k = Math.max(k, he.length);
+        return k;
     }
 
     /**
@@ -545,6 +628,16 @@ public class Main {
      *  - 边：直接写原始行号
      */
     static void writeGrUsingOriginalIds(Set<Long> E, Set<Integer> nodes, Path out) throws IOException{
+        writeGrUsingOriginalIds(E, Set.of(), nodes, out);
+    }
+
+    /** 同上，另把 singles 写成一元超边行（GraphIO.readGr 按超边读取） */
+    static void writeGrUsingOriginalIds(Set<Long> E, Set<Integer> singles, Set<Integer> nodes, Path out) throws IOException{
+        writeGrUsingOriginalIds(E, List.of(), singles, nodes, out);
+    }
+
+    /** 同上，冲突团各写成一行（不展开）；交给 ExactTW 的 .gr 须先展开，见 decompose */
+    static void writeGrUsingOriginalIds(Set<Long> E, List<int[]> cliques, Set<Integer> singles, Set<Integer> nodes, Path out) throws IOException{
         Files.createDirectories(out.getParent());
         if(nodes.isEmpty()){
             try(BufferedWriter bw=Files.newBufferedWriter(out)){
@@ -553,17 +646,60 @@ public class Main {
             return;
         }
         int n = Collections.max(nodes);
-        List<int[]> edges = new ArrayList<>();
-        for(long e: E){
-            int a=(int)(e>>>32), b=(int)(e & 0xffffffffL);
-            edges.add(new int[]{a, b});
-        }
         try(BufferedWriter bw=Files.newBufferedWriter(out)){
-            bw.write("p tw " + n + " " + edges.size()); bw.newLine();
-            for(int[] ed: edges){
-                bw.write(ed[0] + " " + ed[1]); bw.newLine();
+            bw.write("p tw " + n + " " + (E.size() + cliques.size() + singles.size())); bw.newLine();
+            for(long e: E){ // 边行边遍历边写，不另建边表
+                bw.write((int)(e>>>32) + " " + (int)(e & 0xffffffffL)); bw.newLine();
             }
+            for(int[] c: cliques){
+                StringBuilder sb = new StringBuilder();
+                for(int v: c){ if(sb.length()>0) sb.append(' '); sb.append(v); }
+                bw.write(sb.toString()); bw.newLine();
+            }
+            for(int v: singles){
+                bw.write(String.valueOf(v)); bw.newLine();
+            }
+        }
+    }
+
+    /** 交给 ExactTW 的 .gr：团边走边写（先数一遍得到边数），不物化展开后的边集 */
+    static void writeExpandedGr(ConflictGraph g, Set<Integer> nodes, Path out) throws IOException{
+        Files.createDirectories(out.getParent());
+        long[] m = {0};
+        g.forEachExpanded(e -> m[0]++);
+        try(BufferedWriter bw=Files.newBufferedWriter(out)){
+            bw.write("p tw " + (nodes.isEmpty()? 0 : Collections.max(nodes)) + " " + m[0]); bw.newLine();
+            g.forEachExpanded(e -> {
+                try { bw.write((int)(e>>>32) + " " + (int)(e & 0xffffffffL)); bw.newLine(); }
+                catch (IOException x) { throw new UncheckedIOException(x); }
+            });
+        }
+    }
+
+    /** 二元边（1 基，a<<32|b）与一元边 -> DP 用的 Hypergraph（0 基），边序与 .gr 中一致 */
+    static Dynmaic_Programming_Based_for_CQA.Hypergraph toHypergraph(Set<Long> ec, Set<Long> es, Set<Integer> esSingles){
+        return toHypergraph(ec, List.of(), es, esSingles);
+    }
+
+    /** 同上，冲突团原样带进 Hypergraph.conflictCliques */
+    static Dynmaic_Programming_Based_for_CQA.Hypergraph toHypergraph(Set<Long> ec, List<int[]> cliques, Set<Long> es, Set<Integer> esSingles){
+        int n = 0;
+        List<BitSet> c = new ArrayList<>(), k = new ArrayList<>(), s = new ArrayList<>();
+        for(int[] he: cliques){
+            BitSet b = new BitSet();
+            for(int v: he){ b.set(v-1); n = Math.max(n, v); }
+            k.add(b);
         }
+        for(long e: ec){
+            int a=(int)(e>>>32), b=(int)(e & 0xffffffffL);
+            c.add(Dynmaic_Programming_Based_for_CQA.edge(a-1, b-1)); n = Math.max(n, Math.max(a, b));
+        }
+        for(long e: es){
+            int a=(int)(e>>>32), b=(int)(e & 0xffffffffL);
+            s.add(Dynmaic_Programming_Based_for_CQA.edge(a-1, b-1)); n = Math.max(n, Math.max(a, b));
+        }
+        for(int v: esSingles){ s.add(Dynmaic_Programming_Based_for_CQA.edge(v-1)); n = Math.max(n, v); }
+        return new Dynmaic_Programming_Based_for_CQA.Hypergraph(n, c, k, s);
     }
 
     /** 写一个旁路的顶点计数文件 */
@@ -596,19 +732,20 @@ public class Main {
         }
     }
 
-    /** 汇总两个图的顶点数 */
-    static void writeGraphsVertexCountsSummary(String base, int conflictCount, int solutionConflictCount) throws IOException{
+    /** 汇总冲突图、解-冲突图（化简前）与化简后联合图的顶点数 */
+    static void writeGraphsVertexCountsSummary(String base, int conflictCount, int solutionConflictCount, int reducedCount) throws IOException{
         Path f = Path.of(OUT_DIR, base + "_vertex_counts.txt");
         Files.createDirectories(f.getParent());
         try(BufferedWriter bw = Files.newBufferedWriter(f)){
             bw.write("conflict_graph_vertices=" + conflictCount); bw.newLine();
             bw.write("solution_conflict_graph_vertices=" + solutionConflictCount); bw.newLine();
+            bw.write("reduced_vertices=" + reducedCount); bw.newLine();
         }
     }
 
 
     /** 顶层：BUCQ 的所有子 BCQ 的解边并集，随后做极小化 */
-    static List<int[]> buildSolutionHyperedgesBUCQ(List<Fact> facts, BUCQ bu) {
+    static List<int[]> buildSolutionHyperedgesBUCQ(Facts facts, BUCQ bu) {
         List<int[]> out = new ArrayList<>();
         for(BCQ bcq : bu.disj){
             out.addAll(evalBCQToWitnesses(facts, bcq));
@@ -618,107 +755,55 @@ public class Main {
     }
 
     /** 对单个 BCQ 做回溯匹配，返回 witness（使用到的 1-based 原始行号集合） */
-    static List<int[]> evalBCQToWitnesses(List<Fact> facts, BCQ q){
-        // 预筛：每个变量根据“常量比较”的原子得到候选行
-        Map<String, List<Integer>> cand = new HashMap<>();
-        for(String v : q.vars){
-            List<Integer> list = new ArrayList<>();
-            outer: for(int i=0;i<facts.size();i++){
-                Fact f = facts.get(i);
-                for(DCAtom a : q.atoms){
-                    if(!a.lVar.equals(v)) continue;
-                    if(!a.isConst) continue; // 只用常量比较做一元筛选
-                    String v1 = f.get(a.lAttr);
-                    if(v1==null || !cmp(v1, a.op, a.constVal)) continue outer;
-                }
-                list.add(i);
-            }
-            if(list.isEmpty()){ // 某变量无候选，直接空
+    static List<int[]> evalBCQToWitnesses(Facts facts, BCQ q){
+        // 预筛：每个变量根据“常量比较”的原子得到候选行（列位图求交）
+        int[][] cand = new int[q.vars.size()][];
+        for(int t=0;t<cand.length;t++){
+            int[] rows = constCandidates(facts, q.atoms, q.vars.get(t));
+            if(rows == null){ rows = new int[facts.size()]; for(int i=0;i<rows.length;i++) rows[i] = i; }
+            if(rows.length == 0){ // 某变量无候选，直接空
                 return Collections.emptyList();
             }
-            cand.put(v, list);
+            cand[t] = rows;
         }
 
         List<int[]> res = new ArrayList<>();
-        Map<String,Integer> asg = new HashMap<>(); // var -> row index
-        backtrackBCQ(0, q, facts, cand, asg, res);
+        CompiledClause cq = CompiledClause.compile(facts, q.atoms, q.vars);
+        if(TrieJoin.applies(q)) TrieJoin.enumerate(facts, q, cand, cq, res); // 等值连接走 Leapfrog Triejoin
+        else WitnessSearch.search(cq, cand, res); // 按第一个（或前两个）变量的候选切段并行回溯
 
         // 归一化：0-based → 1-based, 排序, 去重
         res = dedupAndNormalize(res);
         return res;
     }
 
-    static void backtrackBCQ(int pos, BCQ q, List<Fact> facts,
-                             Map<String,List<Integer>> cand,
-                             Map<String,Integer> asg,
-                             List<int[]> res){
-        if(pos == q.vars.size()){
-            if(allAtomsSat(q.atoms, asg, facts)){
-                TreeSet<Integer> set = new TreeSet<>();
-                for(int r : asg.values()) set.add(r);
-                int[] arr = set.stream().mapToInt(x->x).toArray();
-                res.add(arr);
-            }
-            return;
-        }
-        String v = q.vars.get(pos);
-        for(int idx : cand.get(v)){
-            if(partialOk(v, idx, q.atoms, asg, facts)){
-                asg.put(v, idx);
-                backtrackBCQ(pos+1, q, facts, cand, asg, res);
-                asg.remove(v);
-            }
+    /** 变量 v 上全部常量原子同时成立的行（0 基、升序）；没有常量原子时返回 null（不筛） */
+    static int[] constCandidates(Facts facts, List<DCAtom> atoms, String v){
+        ColumnIndex ci = facts.index;
+        RowBitmap hit = null;
+        for(DCAtom a : atoms){
+            if(!a.isConst || !a.lVar.equals(v)) continue;
+            RowBitmap b = ci.select(a.lAttr, a.op, a.constVal);
+            hit = (hit==null)? b : hit.and(b);
         }
+        return (hit==null)? null : hit.toArray();
     }
 
-    static boolean allAtomsSat(List<DCAtom> atoms, Map<String,Integer> asg, List<Fact> facts){
-        for(DCAtom a: atoms){
-            Integer li = asg.get(a.lVar);
-            if(li==null) return false;
-            String v1 = facts.get(li).get(a.lAttr);
-            if(v1==null) return false;
-            if(a.isConst){
-                if(!cmp(v1, a.op, a.constVal)) return false;
-            }else{
-                Integer ri = asg.get(a.rVar);
-                if(ri==null) return false;
-                String v2 = facts.get(ri).get(a.rAttr);
-                if(v2==null || !cmp(v1, a.op, v2)) return false;
-            }
+    /** 赋到第 pos 个变量时只检查新变得可求值的原子（CompiledClause.testAt），全赋完即为 witness */
+    static void backtrackBCQ(int pos, CompiledClause cq, int[][] cand, int[] rows, List<int[]> res){
+        if(pos == rows.length){
+            res.add(Arrays.stream(rows).distinct().sorted().toArray());
+            return;
         }
-        return true;
-    }
-
-    static boolean partialOk(String newVar, int newIdx, List<DCAtom> atoms,
-                             Map<String,Integer> asg, List<Fact> facts){
-        Map<String,Integer> tmp = new HashMap<>(asg);
-        tmp.put(newVar, newIdx);
-        for(DCAtom a: atoms){
-            Integer li = tmp.get(a.lVar);
-            if(li==null) continue;
-            if(a.isConst){
-                String v1 = facts.get(li).get(a.lAttr);
-                if(v1==null || !cmp(v1, a.op, a.constVal)) return false;
-            }else{
-                Integer ri = tmp.get(a.rVar);
-                if(ri==null) continue;
-                String v1 = facts.get(li).get(a.lAttr);
-                String v2 = facts.get(ri).get(a.rAttr);
-                if(v1==null || v2==null || !cmp(v1, a.op, v2)) return false;
-            }
+        for(int idx : cand[pos]){
+            rows[pos] = idx;
+            if(cq.testAt(pos, rows)) backtrackBCQ(pos+1, cq, cand, rows, res);
         }
-        return true;
     }
 
+    /** 0 基 -> 1 基、排序、去重（保留首次出现）；条数多时并行（WitnessSearch.dedup） */
     static List<int[]> dedupAndNormalize(List<int[]> edges){
-        Set<String> seen = new HashSet<>();
-        List<int[]> out = new ArrayList<>();
-        for(int[] e : edges){
-            int[] x = Arrays.stream(e).map(i->i+1).sorted().toArray();
-            String key = Arrays.toString(x);
-            if(seen.add(key)) out.add(x);
-        }
-        return out;
+        return WitnessSearch.dedup(edges);
     }
 
     /** 移除任何“为另一条边超集”的超边，保留极小 witness */
@@ -747,6 +832,317 @@ public class Main {
     }
 
 
+    /** 步骤 1：冲突超边，按 CSV / .fd / .dc 的内容走 ArtifactCache */
+    static HyperedgeSpool loadConflictHyperedges(Path csv, Path fdPath, Path dcPath,
+                                                 Facts facts, List<FD> fds, List<DCClause> dcs) throws IOException{
+        String conflictKey = (CACHE==null)? null : ArtifactCache.fileKey(DcSearch.ASCENDING? "conflicts-v3-asc" : "conflicts-v3", csv, fdPath, dcPath);
+        Path cachedHypers = (CACHE==null)? null : CACHE.lookup(conflictKey, "he");
+        if(cachedHypers != null){
+            try {
+                HyperedgeSpool hit = ArtifactCache.readHyperedges(cachedHypers, Path.of(OUT_DIR));
+                System.out.println("[INFO] Conflict hyperedges loaded from cache.");
+                return hit;
+            } catch (NoSuchFileException evicted) { // 期间被其他请求淘汰：重新构建
+            }
+        }
+        HyperedgeSpool conflictHypers = buildConflictHyperedges(facts, fds, dcs, null).hyperedges;
+        if(CACHE != null) CACHE.storeHyperedges(conflictKey, conflictHypers);
+        return conflictHypers;
+    }
+
+    /** 超边按化简改写，丢掉 U 之外与改写后为空的 */
+    static List<int[]> mapHyperedges(FactReduction red, List<int[]> hyperedges){
+        List<int[]> mapped = new ArrayList<>();
+        for(int[] he: hyperedges){
+            int[] m = red.mapHyperedge(he);
+            if(m != null && m.length > 0) mapped.add(m);
+        }
+        return mapped;
+    }
+
+    /**
+     * 步骤 4：联合图 sg 的树分解写到 std、宽度写到 stw（空图不跑）。
+     * keptHypers 为 null 时只用 ExactTW；否则超边过宽或 -Dcqa.td=hyper 时直接在超图上分解。
+     */
+    static void decompose(Set<Integer> tdNodes, Set<Long> unionEdges, List<int[]> unionCliques, List<int[]> keptHypers,
+                          Path sg, Path std, Path stw) throws Exception{
+        if(tdNodes.isEmpty()){
+            try(BufferedWriter bw=Files.newBufferedWriter(std)){
+                bw.write("c empty graph\ns td 0\n"); bw.newLine();
+            }
+            writeTw(0, stw);
+            return;
+        }
+        boolean hyper = keptHypers != null && (TD_MODE.equals("hyper") || maxArity(keptHypers) >= WIDE_ARITY);
+        // 同一规范联合图 + 同一方法的分解直接从缓存复制
+        String tdKey = (CACHE==null)? null : ArtifactCache.graphKey(hyper ? "hyper-v1" : "exact-v1", tdNodes, unionEdges, unionCliques);
+        Path cachedTd = (CACHE==null)? null : CACHE.lookup(tdKey, "td");
+        if(cachedTd != null){
+            try {
+                Files.copy(cachedTd, std, StandardCopyOption.REPLACE_EXISTING);
+                System.out.println("[INFO] Tree decomposition loaded from cache.");
+            } catch (NoSuchFileException evicted) { // 期间被其他请求淘汰
+                cachedTd = null;
+            }
+        }
+        if(cachedTd == null && hyper){
+            HypergraphTD.Result r = HypergraphTD.decompose(tdNodes, keptHypers);
+            HypergraphTD.writeTd(r, Collections.max(tdNodes), std);
+            System.out.println("[INFO] Hypergraph TD (no clique expansion): bags=" + r.bags.size() + " width=" + r.width());
+        } else if(cachedTd == null){
+            if(!unionCliques.isEmpty()){ // ExactTW 只读两两的边：此时才把团展开
+                writeExpandedGr(new ConflictGraph(unionEdges, unionCliques), tdNodes, sg);
+            }
+            synchronized(TW_LOCK){
+                ExactTW.main(new String[]{sg.toString(), std.toString(), "-acsd"});
+            }
+        }
+        if(cachedTd == null && CACHE != null) CACHE.store(tdKey, "td", std);
+        writeTw(readTw(std), stw);
+    }
+
+    /**
+     * 从 DP 表抽 k 个 repair 写到 out，每行一个（升序的 1 基原始 id）。
+     * 化简图上的样本展开回 U：无冲突点总在 repair 中，假孪生与其代表同进同出。
+     */
+    static void writeRepairSamples(Dynmaic_Programming_Based_for_CQA.Engine eng, FactReduction red,
+                                   Set<Integer> tdNodes, long k, Path out) throws IOException{
+        List<Integer> always = new ArrayList<>();  // 无冲突点
+        Map<Integer,List<Integer>> twinsOf = new HashMap<>();
+        if(red != null){
+            for(Map.Entry<Integer,Integer> e: red.rep.entrySet()){
+                if(e.getValue() == FactReduction.CONFLICT_FREE) always.add(e.getKey());
+                else twinsOf.computeIfAbsent(e.getValue(), x->new ArrayList<>()).add(e.getKey());
+            }
+        }
+        Files.createDirectories(out.getParent());
+        try(BufferedWriter bw = Files.newBufferedWriter(out)){
+            UncheckedIOException[] err = {null};
+            int[] base = always.stream().mapToInt(Integer::intValue).toArray();
+            eng.sample(k, SAMPLE_SEED, rep -> {
+                if(err[0] != null) return;
+                int n = base.length;
+                for(int v: rep){
+                    if(!tdNodes.contains(v + 1)) continue;
+                    List<Integer> tw = twinsOf.get(v + 1);
+                    n += 1 + (tw == null ? 0 : tw.size());
+                }
+                int[] b = Arrays.copyOf(base, n);
+                int i = base.length;
+                for(int v: rep){
+                    if(!tdNodes.contains(v + 1)) continue; // .gr 按最大 id 补的孤立点，不是 U 中的事实
+                    b[i++] = v + 1;
+                    List<Integer> tw = twinsOf.get(v + 1);
+                    if(tw != null) for(int t: tw) b[i++] = t;
+                }
+                Arrays.sort(b);
+                StringBuilder sb = new StringBuilder(n * 4);
+                for(int j=0;j<n;j++){ if(j>0) sb.append(' '); sb.append(b[j]); }
+                try { bw.write(sb.toString()); bw.newLine(); }
+                catch(IOException e){ err[0] = new UncheckedIOException(e); }
+            });
+            if(err[0] != null) throw err[0].getCause();
+        }
+    }
+
+    /** 一次计数的结果：falsify 为 null 表示 DP 失败，error 为原因 */
+    static final class CountResult {
+        java.math.BigInteger falsify;
+        String error;
+        /** 解连通的联合图（化简前）与化简后进入分解的顶点数 */
+        int unionVertices, tdVertices;
+        /** 近似计数时的样本数与误差说明；精确计数为 null */
+        String approx;
+    }
+
+    /** 预估是否在预算内：run，或超出时的 BUDGET_ACTION */
+    static String admit(TdCostModel.Estimate e){
+        boolean over = (BUDGET_MS > 0 && e.millis > BUDGET_MS) || (BUDGET_MB > 0 && e.bytes > BUDGET_MB * (1L << 20));
+        if(!over) return "run";
+        if(!BUDGET_ACTION.equals("approx") && !BUDGET_ACTION.equals("reject"))
+            throw new IllegalArgumentException("cqa.budget.action must be approx or reject: " + BUDGET_ACTION);
+        return BUDGET_ACTION;
+    }
+
+    /** 改用 ApproxCounter：结果带近似说明 */
+    private static CountResult approximate(CountResult cr, Dynmaic_Programming_Based_for_CQA.Hypergraph H, String why){
+        ApproxCounter.Estimate est = new ApproxCounter(H).estimate();
+        System.out.println("[INFO] " + why + "; approximate count: " + est.summary());
+        cr.falsify = est.value;
+        cr.approx = est.summary();
+        return cr;
+    }
+
+    /** ExactTW 以静态 main 的方式调用，并发调用时串行化 */
+    private static final Object TW_LOCK = new Object();
+
+    /**
+     * 步骤 3–5：合并冲突边与解边、Prop.10 剪枝、事实化简、按块计数或树分解 + DP。
+     * 中间产物写到 outDir/base_*（批处理为 result/，服务模式为每个请求的临时目录）。
+     */
+    static CountResult countFalsify(Path outDir, String base, boolean pureFD,
+                                    Iterable<int[]> conflictHypers, ConflictGraph conflicts,
+                                    List<int[]> solutionHypers, Set<Integer> solutionNodes,
+                                    Set<Long> solutionEdgesGraph) throws Exception{
+        return countFalsify(outDir, base, pureFD, conflictHypers, conflicts, solutionHypers, solutionNodes, solutionEdgesGraph, null);
+    }
+
+    /** weights：1 基行号 -> 权重（readWeights），只在 MEASURES 时使用 */
+    static CountResult countFalsify(Path outDir, String base, boolean pureFD,
+                                    Iterable<int[]> conflictHypers, ConflictGraph conflicts,
+                                    List<int[]> solutionHypers, Set<Integer> solutionNodes,
+                                    Set<Long> solutionEdgesGraph, Map<Integer,java.math.BigDecimal> weights) throws Exception{
+        return countFalsify(outDir, base, pureFD, conflictHypers, conflicts, solutionHypers, solutionNodes, solutionEdgesGraph, weights, null);
+    }
+
+    /**
+     * tds：服务模式下表的常驻分解（null 为批处理）。非 null 时不写化简图，
+     * 联合图命中 tds 则跳过 .gr/.td 与求解，未命中才经 decompose（ArtifactCache / ExactTW）并记入 tds。
+     */
+    static CountResult countFalsify(Path outDir, String base, boolean pureFD,
+                                    Iterable<int[]> conflictHypers, ConflictGraph conflicts,
+                                    List<int[]> solutionHypers, Set<Integer> solutionNodes,
+                                    Set<Long> solutionEdgesGraph, Map<Integer,java.math.BigDecimal> weights,
+                                    TdMemo tds) throws Exception{
+        CountResult cr = new CountResult();
+        // 3) 合并并按 Prop.10 保留与解连通的部分，写解-冲突图（联合图；冲突团不展开）
+        Set<Integer> solGraphNodes = solutionNodes.isEmpty() ? new HashSet<>() : conflicts.reach(solutionNodes, solutionEdgesGraph);
+        ConflictGraph kept = conflicts.within(solGraphNodes);
+        Set<Long> unionEdges = new EdgeSet(kept.pairs);
+        for(long e: solutionEdgesGraph) if(solGraphNodes.contains((int)(e>>>32))) unionEdges.add(e);
+        List<int[]> unionCliques = kept.cliques;
+        cr.unionVertices = solGraphNodes.size();
+        Path sg = outDir.resolve(base + "_solution_conflict_graph.gr");
+        if(tds == null) writeGrUsingOriginalIds(unionEdges, unionCliques, Set.of(), solGraphNodes, sg);
+
+        // 3b) 事实级化简：无冲突点 / 假孪生不进联合图与 DP（计数因子均为 1）
+        FactReduction red = null;
+        if(REDUCE && !solGraphNodes.isEmpty()){
+            red = FactReduction.reduce(solGraphNodes, kept, solutionEdgesGraph);
+            System.out.println("[INFO] Fact reduction: " + red.summary());
+            unionEdges = new EdgeSet(red.conflicts.pairs);
+            unionEdges.addAll(red.solutionEdges);
+            unionCliques = red.conflicts.cliques;
+            if(tds == null){
+                writeGrUsingOriginalIds(red.conflicts.pairs, red.conflicts.cliques, Set.of(), red.nodes, outDir.resolve(base + "_reduced_conflict_graph.gr"));
+                writeGrUsingOriginalIds(red.solutionEdges, red.solutionSingletons, red.nodes, outDir.resolve(base + "_reduced_solutions_graph.gr"));
+            }
+        }
+        Set<Integer> tdNodes = (red == null) ? solGraphNodes : red.nodes;
+        cr.tdVertices = tdNodes.size();
+
+        // 3c) 纯 FD：冲突图是团（块）的不交并时直接按块计数，跳过 ExactTW 与 Engine
+        //     加权的度量走 SemiringDp；不加权时度量还要 repair 总数（各块大小之积），
+        //     forcedZero 让 count 提前返回而图不是块的并时，总数交给下面的 DP
+        java.math.BigInteger blockCount = null, blockTotal = null;
+        if(BLOCK && red != null && pureFD && SAMPLES == 0 && weights == null){
+            blockCount = BlockCounter.count(red);
+            if(blockCount != null && MEASURES && (blockTotal = BlockCounter.repairs(red)) == null) blockCount = null;
+            if(blockCount != null) System.out.println("[INFO] Pure-FD block counting; tree decomposition skipped.");
+        }
+
+        boolean measure = MEASURES && SAMPLES <= 0;
+        // 化简后已无需 DP：要么查询在所有 repair 中成立，要么只剩唯一的 repair（服务模式下连分解也不求）
+        boolean noDp = red != null && (red.nodes.isEmpty() || red.forcedZero && !measure);
+        TdMemo.Key memoKey = (tds == null || blockCount != null || noDp) ? null : TdMemo.Key.of(tdNodes, unionEdges, unionCliques);
+        var memoTd = (memoKey == null) ? null : tds.get(memoKey);
+        if(memoTd != null) System.out.println("[INFO] Tree decomposition reused from memory.");
+        boolean solve = memoTd == null && !(tds != null && noDp);
+
+        // 化简后的联合图另存，分解在它上面做；未化简时就是 sg（批处理已在上面写过）
+        Path tg = (red == null) ? sg : outDir.resolve(base + "_reduced_solution_conflict_graph.gr");
+        if(solve && (red != null || tds != null)) writeGrUsingOriginalIds(unionEdges, unionCliques, Set.of(), tdNodes, tg);
+        // 不再写解-冲突图的 vertex_counts 文件
+
+        // 4) 在解-冲突图上跑 Treewidth（得到 .td，供 DP 用；空图不跑）
+        Path std = outDir.resolve(base + "_solution_result.td");
+        Path stw = outDir.resolve(base + "_solution_treewidth.txt");
+        if(blockCount != null){
+            Files.deleteIfExists(std); // 不留上一次运行的旧分解
+            Files.deleteIfExists(stw);
+        } else if(solve){
+            List<int[]> keptHypers = TD_MODE.equals("exact") ? null
+                    : solutionConnectedHypers(conflictHypers, solutionHypers, solGraphNodes);
+            if(keptHypers != null && red != null) keptHypers = mapHyperedges(red, keptHypers);
+            decompose(tdNodes, unionEdges, unionCliques, keptHypers, tg, std, stw);
+        }
+
+        // 5) 调用 DP：NUMBERFALSIFY（Ec / Es 与刚写出的 .gr 内容一致，直接在内存里组装）
+        Path sest = outDir.resolve(base + "_solution_estimate.txt");
+        Path smeas = outDir.resolve(base + "_cqa_measures.txt");
+        Files.deleteIfExists(sest);
+        Files.deleteIfExists(smeas);
+        try {
+            if(blockCount != null){
+                cr.falsify = blockCount;
+                if(measure) new SemiringDp.Measures(blockTotal, blockCount, null, null).write(smeas);
+            } else if(noDp){
+                cr.falsify = red.forcedZero ? java.math.BigInteger.ZERO : java.math.BigInteger.ONE;
+                if(measure){ // 唯一的 repair：加权量只剩无冲突点的权重之积
+                    java.math.BigDecimal w = weights == null ? null : SemiringDp.Weights.of(weights, red, tdNodes).value(java.math.BigInteger.ONE);
+                    new SemiringDp.Measures(java.math.BigInteger.ONE, cr.falsify, w,
+                            w == null ? null : red.forcedZero ? java.math.BigDecimal.ZERO : w).write(smeas);
+                }
+            } else {
+                var H  = (red == null) // 只计联合图 U 内的冲突（U 外的冲突边不属于本次计数）
+                        ? toHypergraph(kept.pairs, kept.cliques, solutionEdgesGraph, Set.of())
+                        : toHypergraph(red.conflicts.pairs, red.conflicts.cliques, red.solutionEdges, red.solutionSingletons);
+                int tw = (memoTd != null) ? TdMemo.width(memoTd) : readTw(std);
+                if(APPROX && tw >= APPROX_WIDTH){
+                    return approximate(cr, H, "Treewidth " + tw + " >= " + APPROX_WIDTH);
+                }
+                var TD = memoTd;
+                if(TD == null){
+                    TD = GraphIO.loadTreeDecomposition(std);   // 联合图（Ec∪Es）的树分解
+                    // 可选：第一次建议打开校验（常驻分解在放入 tds 前已校验过）
+                    GraphIO.assertEdgeCoverage(H, TD);
+                    if(memoKey != null) tds.put(memoKey, TD);
+                }
+
+                // 准入：按分解预估缓存条目、内存与时间，超预算的表不进 Engine
+                TdCostModel.Estimate pre = TdCostModel.estimate(TD,
+                        H.conflictEdges.size() + H.conflictCliques.size() + H.solutionEdges.size());
+                String decision = admit(pre);
+                pre.write(sest, decision);
+                System.out.println("[INFO] Pre-flight estimate: " + pre.summary() + " -> " + decision);
+                if(decision.equals("approx")) return approximate(cr, H, "Estimate over budget");
+                if(decision.equals("reject")){
+                    cr.error = "estimated " + pre.summary() + " exceeds budget (cqa.budget.ms=" + BUDGET_MS + ", cqa.budget.mb=" + BUDGET_MB + ")";
+                    return cr;
+                }
+
+                if(measure){
+                    var m = SemiringDp.measures(H, TD, weights == null ? null : SemiringDp.Weights.of(weights, red, tdNodes));
+                    if(red != null && red.forcedZero) // 查询在每个 repair 中成立：总数照算，证伪为 0
+                        m = new SemiringDp.Measures(m.total, java.math.BigInteger.ZERO, m.weightedTotal,
+                                m.weightedTotal == null ? null : java.math.BigDecimal.ZERO);
+                    cr.falsify = m.falsify;
+                    m.write(smeas);
+                    System.out.println("[INFO] Repair measures: " + m.summary());
+                    return cr;
+                }
+                if(ShardedCounter.WORKERS > 0 && SAMPLES <= 0){
+                    cr.falsify = ShardedCounter.count(H, TD);   // 按连通分量分给 worker 进程
+                    return cr;
+                }
+                var eng = new Dynmaic_Programming_Based_for_CQA.Engine(H, TD);
+                cr.falsify = eng.numberFalsify();
+                System.out.println("[INFO] DP memo: " + eng.memoStats());
+                if(SAMPLES > 0){
+                    Path out = outDir.resolve(base + "_repair_samples.txt");
+                    var src = SAMPLE_ALL ? eng.allRepairs() : eng;
+                    boolean none = (SAMPLE_ALL ? src.numberFalsify() : cr.falsify).signum() == 0;
+                    writeRepairSamples(src, red, tdNodes, SAMPLES, out);
+                    src.close();
+                    System.out.println("[INFO] " + (none ? 0 : SAMPLES) + " repair samples written to " + out);
+                }
+            }
+        } catch (Exception ex) {
+            cr.error = ex.getMessage();
+        }
+        return cr;
+    }
+
     public static void main(String[] args) throws Exception{
 
         Files.createDirectories(Paths.get(OUT_DIR));
@@ -759,119 +1155,92 @@ public class Main {
 
         for(File csv : csvFiles){
             String base = csv.getName().replace(".csv","");
-            List<Fact> facts = readFacts(csv.toPath());
-            List<FD>   fds   = readFD(Path.of(FD_DIR, base + ".fd"));
-            List<DCClause> dcs = readDC(Path.of(DC_DIR, base + ".dc"));
+            Path fdPath = Path.of(FD_DIR, base + ".fd");
+            Path dcPath = Path.of(DC_DIR, base + ".dc");
+            Path qpath = Path.of(QUERY_DIR, base + ".query");
+            List<FD>   fds   = readFD(fdPath);
+            List<DCClause> dcs = readDC(dcPath);
+            BUCQ bu = readBUCQ(qpath);
+            Facts facts = new Facts(readFacts(csv.toPath(),
+                    PROJECT ? referencedAttrs(fds, dcs, List.of(bu), List.of(qpath)) : null));
 
             System.out.println("[INFO] CSV=" + base + " facts=" + facts.size()
                     + " FDs=" + fds.size() + " DCs=" + dcs.size());
 
-            // 1) 冲突超边（全局）
-            BuildResult br = buildConflictHyperedges(facts, fds, dcs, null);
-            List<int[]> conflictHypers = br.hyperedges;
-
-            Set<Long> conflictEdges = cliqueExpandToEdges(conflictHypers);
-            Set<Integer> conflictNodes = nodesFromEdges(conflictEdges);
-            conflictNodes.addAll(singletonNodes(conflictHypers));
-
-            // 写冲突图 + 顶点计数
-            Path cg = Path.of(OUT_DIR, base + "_conflict_graph.gr");
-            writeGrUsingOriginalIds(conflictEdges, conflictNodes, cg);
-            writeVertexCount(cg, conflictNodes); // 保留冲突图的 vertex_counts
-
-            // 2) 解析查询，得到解超边（Es）
-            List<int[]> solutionHypers = new ArrayList<>();
-            Set<Integer> solutionNodes = new HashSet<>();
-
-            Path qpath = Path.of(QUERY_DIR, base + ".query");
-            boolean queryFileExists = Files.exists(qpath);
-            String rawQuery = null;
-            if(queryFileExists){
-                rawQuery = String.join("\n", Files.readAllLines(qpath));
-            }
+            // 1) 冲突超边（全局）；CSV / .fd / .dc 内容未变时直接读缓存
+            HyperedgeSpool conflictHypers = loadConflictHyperedges(csv.toPath(), fdPath, dcPath, facts, fds, dcs);
+            try {
+                ConflictGraph conflicts = ConflictGraph.of(conflictHypers);
+                Set<Integer> conflictNodes = conflicts.nodes();
+                conflictNodes.addAll(singletonNodes(conflictHypers));
+                if(!conflicts.cliques.isEmpty()) System.out.println("[INFO] Conflict graph: " + conflicts.summary());
+
+                // 写冲突图 + 顶点计数
+                Path cg = Path.of(OUT_DIR, base + "_conflict_graph.gr");
+                writeGrUsingOriginalIds(conflicts.pairs, conflicts.cliques, Set.of(), conflictNodes, cg);
+                writeVertexCount(cg, conflictNodes); // 保留冲突图的 vertex_counts
+
+                // 2) 解析查询，得到解超边（Es）
+                List<int[]> solutionHypers = new ArrayList<>();
+                Set<Integer> solutionNodes = new HashSet<>();
+
+                boolean queryFileExists = Files.exists(qpath);
+                String rawQuery = null;
+                if(queryFileExists){
+                    rawQuery = String.join("\n", Files.readAllLines(qpath));
+                }
 
-            BUCQ bu = readBUCQ(qpath);
-            if(queryFileExists && !bu.isEmpty()){
-                solutionHypers = buildSolutionHyperedgesBUCQ(facts, bu);
-                for(int[] he : solutionHypers) for(int id : he) solutionNodes.add(id);
-                System.out.println("[INFO] Query parsed as BUCQ (BCQ count=" + bu.disj.size() + "); solution hyperedges = " + solutionHypers.size());
-            } else if(queryFileExists) {
-                Set<Integer> qIdx0 = queryIdx(facts, qpath);
-                if(!qIdx0.isEmpty()){
-                    for(int id: qIdx0){
-                        int gid = id + 1; // 原始编号
-                        solutionHypers.add(new int[]{gid});
-                        solutionNodes.add(gid);
+                if(queryFileExists && !bu.isEmpty()){
+                    solutionHypers = buildSolutionHyperedgesBUCQ(facts, bu);
+                    for(int[] he : solutionHypers) for(int id : he) solutionNodes.add(id);
+                    System.out.println("[INFO] Query parsed as BUCQ (BCQ count=" + bu.disj.size() + "); solution hyperedges = " + solutionHypers.size());
+                } else if(queryFileExists) {
+                    Set<Integer> qIdx0 = queryIdx(facts, qpath);
+                    if(!qIdx0.isEmpty()){
+                        for(int id: qIdx0){
+                            int gid = id + 1; // 原始编号
+                            solutionHypers.add(new int[]{gid});
+                            solutionNodes.add(gid);
+                        }
+                        System.out.println("[INFO] Query parsed as simple selection; solution nodes = " + solutionNodes.size());
+                    } else {
+                        System.err.println("[ERROR] Query file exists but could not be parsed as BCQ/BUCQ nor as selection. "
+                                + "Please check syntax. Content (normalized head): "
+                                + (rawQuery==null? "<null>" : norm(rawQuery).substring(0, Math.min(200, norm(rawQuery).length()))));
                     }
-                    System.out.println("[INFO] Query parsed as simple selection; solution nodes = " + solutionNodes.size());
                 } else {
-                    System.err.println("[ERROR] Query file exists but could not be parsed as BCQ/BUCQ nor as selection. "
-                            + "Please check syntax. Content (normalized head): "
-                            + (rawQuery==null? "<null>" : norm(rawQuery).substring(0, Math.min(200, norm(rawQuery).length()))));
-                }
-            } else {
-                System.out.println("[INFO] No query file; skipping solution set.");
-            }
-
-            // === 新增：导出 Es 为单独的 .gr（供 DP 使用） ===
-            Set<Long> solutionEdgesGraph = cliqueExpandToEdges(solutionHypers);
-            Set<Integer> solutionGraphNodes = nodesFromEdges(solutionEdgesGraph);
-            solutionGraphNodes.addAll(singletonNodes(solutionHypers));
-            Path solGr = Path.of(OUT_DIR, base + "_solutions_graph.gr");
-            writeGrUsingOriginalIds(solutionEdgesGraph, solutionGraphNodes, solGr);
-
-            // 3) 合并并按 Prop.10 保留与解连通的部分，写解-冲突图（联合图）
-            List<int[]> unionHypers = new ArrayList<>();
-            unionHypers.addAll(conflictHypers);
-            unionHypers.addAll(solutionHypers);
-            Set<Long> unionEdges = cliqueExpandToEdges(unionHypers);
-            Set<Integer> reachable = keepOnlySolutionConnected(unionEdges, solutionNodes);
-
-            Set<Integer> solGraphNodes = nodesFromEdges(unionEdges);
-            solGraphNodes.addAll(reachable);
-            solGraphNodes.addAll(solutionNodes);
-
-            Path sg = Path.of(OUT_DIR, base + "_solution_conflict_graph.gr");
-            writeGrUsingOriginalIds(unionEdges, solGraphNodes, sg);
-            // 不再写解-冲突图的 vertex_counts 文件
-
-            // 4) 在解-冲突图上跑 Treewidth（得到 .td，供 DP 用；空图不跑）
-            Path std = Path.of(OUT_DIR, base + "_solution_result.td");
-            Path stw = Path.of(OUT_DIR, base + "_solution_treewidth.txt");
-            if(solGraphNodes.isEmpty()){
-                try(BufferedWriter bw=Files.newBufferedWriter(std)){
-                    bw.write("c empty graph\ns td 0\n"); bw.newLine();
+                    System.out.println("[INFO] No query file; skipping solution set.");
                 }
-                writeTw(0, stw);
-            } else {
-                ExactTW.main(new String[]{sg.toString(), std.toString(), "-acsd"});
-                writeTw(readTw(std), stw);
-            }
 
-            // 5) 调用 DP：NUMBERFALSIFY，并落盘结果
-            try {
-                var H  = GraphIO.loadHypergraph(
-                        Path.of(OUT_DIR, base + "_conflict_graph.gr"),   // Ec
-                        Path.of(OUT_DIR, base + "_solutions_graph.gr")   // Es
-                );
-                var TD = GraphIO.loadTreeDecomposition(
-                        Path.of(OUT_DIR, base + "_solution_result.td")   // 联合图（Ec∪Es）的树分解
-                );
-                // 可选：第一次建议打开校验
-                GraphIO.assertEdgeCoverage(H, TD);
-
-                var eng = new Dynmaic_Programming_Based_for_CQA.Engine(H, TD);
-                var falsifyCount = eng.numberFalsify();
-                System.out.println("[CQA] NUMBERFALSIFY(" + base + ") = " + falsifyCount);
+                // === 新增：导出 Es 为单独的 .gr（供 DP 使用） ===
+                Set<Long> solutionEdgesGraph = cliqueExpandToEdges(solutionHypers);
+                Set<Integer> solutionGraphNodes = nodesFromEdges(solutionEdgesGraph);
+                solutionGraphNodes.addAll(singletonNodes(solutionHypers));
+                Path solGr = Path.of(OUT_DIR, base + "_solutions_graph.gr");
+                writeGrUsingOriginalIds(solutionEdgesGraph, solutionGraphNodes, solGr);
+
+                // 3)–5) 联合图、化简、树分解与 DP
+                CountResult cr = countFalsify(Path.of(OUT_DIR), base, dcs.isEmpty(),
+                        conflictHypers, conflicts, solutionHypers, solutionNodes, solutionEdgesGraph,
+                        WEIGHT_COLUMN == null ? null : readWeights(facts.rows, WEIGHT_COLUMN));
+                if(cr.falsify != null){
+                    Path outTxt = Path.of(OUT_DIR, base + "_cqa_numberfalsify.txt");
+                    if(cr.approx == null){
+                        System.out.println("[CQA] NUMBERFALSIFY(" + base + ") = " + cr.falsify);
+                        Files.writeString(outTxt, cr.falsify.toString());
+                    } else {
+                        System.out.println("[CQA] NUMBERFALSIFY(" + base + ") ~ " + cr.falsify + " (" + cr.approx + ")");
+                        Files.writeString(outTxt, cr.falsify + "\napprox " + cr.approx + "\n");
+                    }
+                } else {
+                    System.err.println("[CQA] counting failed for " + base + ": " + cr.error);
+                }
 
-                Path outTxt = Path.of(OUT_DIR, base + "_cqa_numberfalsify.txt");
-                Files.writeString(outTxt, falsifyCount.toString());
-            } catch (Exception ex) {
-                System.err.println("[CQA] counting failed for " + base + ": " + ex.getMessage());
+                // 6) 汇总（保持原有的汇总文件）
+                writeGraphsVertexCountsSummary(base, conflictNodes.size(), cr.unionVertices, cr.tdVertices);
+            } finally {
+                conflictHypers.close(); // 删除溢写的 run 文件
             }
-
-            // 6) 汇总（保持原有的汇总文件）
-            writeGraphsVertexCountsSummary(base, conflictNodes.size(), solGraphNodes.size());
         }
     }
 }
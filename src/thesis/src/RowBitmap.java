@@ -0,0 +1,207 @@
+package thesis.src;
+
+import java.util.*;
+import java.util.function.IntConsumer;
+
+/**
+ * 行号（0 基）集合的压缩位图，roaring 式分块：按高 16 位分容器，
+ * 容器内至多 ARRAY_MAX 个元素时存升序 char[]，超过则存 1024 个 long 的位图。
+ * 建索引时按行号升序 add；and / or 返回新位图，不改参与运算的两个（索引里的位图因此可以共享）。
+ */
+final class RowBitmap {
+
+    private static final int ARRAY_MAX = 4096;
+
+    private char[] keys = new char[0];
+    private Object[] conts = new Object[0];   // char[]（前 cards[i] 个有效）或 long[1024]
+    private int[] cards = new int[0];
+    private int size;
+
+    /** 空位图；每次新建，调用方之后 add 不会影响别处 */
+    static RowBitmap empty(){ return new RowBitmap(); }
+
+    /** 追加一行；行号须不小于已有的最大行号（重复的忽略） */
+    void add(int row){
+        char hi = (char) (row >>> 16), lo = (char) row;
+        if (size == 0 || keys[size - 1] != hi) {
+            if (size > 0 && keys[size - 1] > hi) throw new IllegalArgumentException("rows must be added in ascending order: " + row);
+            append(hi, new char[4], 0);
+        }
+        int i = size - 1;
+        if (conts[i] instanceof char[] a) {
+            int n = cards[i];
+            if (n > 0 && a[n - 1] >= lo) {
+                if (a[n - 1] == lo) return;
+                throw new IllegalArgumentException("rows must be added in ascending order: " + row);
+            }
+            if (n == ARRAY_MAX) {
+                long[] bits = toBits(a, n);
+                bits[lo >>> 6] |= 1L << lo;
+                conts[i] = bits;
+                cards[i] = n + 1;
+                return;
+            }
+            if (n == a.length) conts[i] = a = Arrays.copyOf(a, Math.min(ARRAY_MAX, n * 2));
+            a[n] = lo;
+            cards[i] = n + 1;
+        } else {
+            long[] bits = (long[]) conts[i];
+            if ((bits[lo >>> 6] & (1L << lo)) == 0) {
+                bits[lo >>> 6] |= 1L << lo;
+                cards[i]++;
+            }
+        }
+    }
+
+    int cardinality(){
+        int c = 0;
+        for (int i = 0; i < size; i++) c += cards[i];
+        return c;
+    }
+
+    boolean isEmpty(){ return size == 0; }
+
+    /** 升序遍历 */
+    void forEach(IntConsumer f){
+        for (int i = 0; i < size; i++) {
+            int base = keys[i] << 16;
+            if (conts[i] instanceof char[] a) {
+                for (int j = 0; j < cards[i]; j++) f.accept(base | a[j]);
+            } else {
+                long[] bits = (long[]) conts[i];
+                for (int w = 0; w < bits.length; w++) {
+                    for (long x = bits[w]; x != 0; x &= x - 1) f.accept(base | (w << 6) | Long.numberOfTrailingZeros(x));
+                }
+            }
+        }
+    }
+
+    int[] toArray(){
+        int[] out = new int[cardinality()];
+        int[] t = {0};
+        forEach(r -> out[t[0]++] = r);
+        return out;
+    }
+
+    RowBitmap and(RowBitmap o){
+        RowBitmap r = new RowBitmap();
+        for (int i = 0, j = 0; i < size && j < o.size; ) {
+            if (keys[i] < o.keys[j]) i++;
+            else if (keys[i] > o.keys[j]) j++;
+            else { r.andContainer(keys[i], conts[i], cards[i], o.conts[j], o.cards[j]); i++; j++; }
+        }
+        return r;
+    }
+
+    RowBitmap or(RowBitmap o){
+        RowBitmap r = new RowBitmap();
+        int i = 0, j = 0;
+        while (i < size || j < o.size) {
+            if (j == o.size || (i < size && keys[i] < o.keys[j])) { r.append(keys[i], copy(conts[i], cards[i]), cards[i]); i++; }
+            else if (i == size || keys[i] > o.keys[j]) { r.append(o.keys[j], copy(o.conts[j], o.cards[j]), o.cards[j]); j++; }
+            else { r.orContainer(keys[i], conts[i], cards[i], o.conts[j], o.cards[j]); i++; j++; }
+        }
+        return r;
+    }
+
+    /** 多个位图的并：少时两两 or，多时（如范围谓词命中很多取值）先落到一个 BitSet 再压缩 */
+    static RowBitmap orAll(List<RowBitmap> parts){
+        if (parts.isEmpty()) return empty();
+        if (parts.size() <= 4) {
+            RowBitmap r = parts.get(0);
+            for (int i = 1; i < parts.size(); i++) r = r.or(parts.get(i));
+            return r;
+        }
+        BitSet all = new BitSet();
+        for (RowBitmap p : parts) p.forEach(all::set);
+        RowBitmap r = new RowBitmap();
+        all.stream().forEach(r::add);
+        return r;
+    }
+
+    /* ---------- 容器 ---------- */
+
+    private void append(char key, Object cont, int card){
+        if (card == 0 && cont instanceof long[]) return;
+        if (size == keys.length) {
+            int cap = Math.max(4, size * 2);
+            keys = Arrays.copyOf(keys, cap);
+            conts = Arrays.copyOf(conts, cap);
+            cards = Arrays.copyOf(cards, cap);
+        }
+        keys[size] = key; conts[size] = cont; cards[size] = card;
+        size++;
+    }
+
+    /** 结果容器：空的不加，位图基数不超过 ARRAY_MAX 的转回数组 */
+    private void appendResult(char key, Object cont, int card){
+        if (card == 0) return;
+        if (cont instanceof long[] bits && card <= ARRAY_MAX) cont = toArray(bits, card);
+        append(key, cont, card);
+    }
+
+    private void andContainer(char key, Object a, int na, Object b, int nb){
+        if (a instanceof char[] x && b instanceof char[] y) {
+            char[] out = new char[Math.min(na, nb)];
+            int n = 0;
+            for (int i = 0, j = 0; i < na && j < nb; ) {
+                if (x[i] < y[j]) i++;
+                else if (x[i] > y[j]) j++;
+                else { out[n++] = x[i]; i++; j++; }
+            }
+            appendResult(key, out, n);
+        } else if (a instanceof char[] || b instanceof char[]) {
+            char[] x = (char[]) (a instanceof char[] ? a : b);
+            int nx = a instanceof char[] ? na : nb;
+            long[] bits = (long[]) (a instanceof char[] ? b : a);
+            char[] out = new char[nx];
+            int n = 0;
+            for (int i = 0; i < nx; i++) if ((bits[x[i] >>> 6] & (1L << x[i])) != 0) out[n++] = x[i];
+            appendResult(key, out, n);
+        } else {
+            long[] x = (long[]) a, y = (long[]) b, out = new long[1024];
+            int n = 0;
+            for (int w = 0; w < 1024; w++) n += Long.bitCount(out[w] = x[w] & y[w]);
+            appendResult(key, out, n);
+        }
+    }
+
+    private void orContainer(char key, Object a, int na, Object b, int nb){
+        if (a instanceof char[] x && b instanceof char[] y && na + nb <= ARRAY_MAX) {
+            char[] out = new char[na + nb];
+            int n = 0, i = 0, j = 0;
+            while (i < na || j < nb) {
+                if (j == nb || (i < na && x[i] < y[j])) out[n++] = x[i++];
+                else if (i == na || x[i] > y[j]) out[n++] = y[j++];
+                else { out[n++] = x[i]; i++; j++; }
+            }
+            appendResult(key, out, n);
+            return;
+        }
+        long[] out = a instanceof long[] x ? x.clone() : toBits((char[]) a, na);
+        if (b instanceof long[] y) for (int w = 0; w < 1024; w++) out[w] |= y[w];
+        else { char[] y = (char[]) b; for (int i = 0; i < nb; i++) out[y[i] >>> 6] |= 1L << y[i]; }
+        int n = 0;
+        for (long w : out) n += Long.bitCount(w);
+        appendResult(key, out, n);
+    }
+
+    private static Object copy(Object cont, int card){
+        return cont instanceof char[] a ? Arrays.copyOf(a, card) : ((long[]) cont).clone();
+    }
+
+    private static long[] toBits(char[] a, int n){
+        long[] bits = new long[1024];
+        for (int i = 0; i < n; i++) bits[a[i] >>> 6] |= 1L << a[i];
+        return bits;
+    }
+
+    private static char[] toArray(long[] bits, int card){
+        char[] out = new char[card];
+        int n = 0;
+        for (int w = 0; w < bits.length; w++) {
+            for (long x = bits[w]; x != 0; x &= x - 1) out[n++] = (char) ((w << 6) | Long.numberOfTrailingZeros(x));
+        }
+        return out;
+    }
+}
@@ -0,0 +1,241 @@
+package thesis.src;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.nio.file.*;
+import java.util.*;
+
+import thesis.src.Dynmaic_Programming_Based_for_CQA.*;
+
+/**
+ * Engine 的 f/g 递推（Recurrence）按半环参数化：值域换成任意加乘结构，
+ * 叶层的值由 Leaf 给出（每个点只在它最高的袋里计一次，见 Leaf.at 的 topMask）。
+ * Engine 仍是只数证伪 repair 的主路径（表存放、检查点、抽样都挂在它上面）；这里只用 heap 缓存。
+ * 常用入口是 measures：m 个计数并排的向量，一趟同时得到 repair 总数、证伪数，给了权重时再加两个加权量，
+ * 不必为“查询成立的比例”再跑一遍不带解边的 Engine。
+ */
+final class SemiringDp<V> extends Recurrence<V> {
+
+    /** 加、减、乘、零、一（子袋合并用 zeta/Möbius 变换，需要减法） */
+    interface Semiring<V> {
+        V zero();
+        V one();
+        V add(V a, V b);
+        V subtract(V a, V b);
+        V mul(V a, V b);
+        boolean isZero(V a);
+    }
+
+    /**
+     * 一致的叶状态（袋 b 内选 rMask：无冲突，且极大性与 s 相符）的值。
+     * topMask = b 中最高袋是 b 的点（根袋为全部，其余为不在父袋里的点）；sol = rMask 含一条解边。
+     */
+    interface Leaf<V> { V at(TDNode b, int rMask, int topMask, boolean sol); }
+
+    /** m 个计数并排，各分量独立加乘（积环）；返回的数组不再修改，可以共享 */
+    static Semiring<BigInteger[]> counts(int m){
+        BigInteger[] zero = new BigInteger[m], one = new BigInteger[m];
+        Arrays.fill(zero, BigInteger.ZERO);
+        Arrays.fill(one, BigInteger.ONE);
+        return new Semiring<>() {
+            public BigInteger[] zero(){ return zero; }
+            public BigInteger[] one(){ return one; }
+            public BigInteger[] add(BigInteger[] a, BigInteger[] b){
+                BigInteger[] c = new BigInteger[m];
+                for (int i = 0; i < m; i++) c[i] = a[i].add(b[i]);
+                return c;
+            }
+            public BigInteger[] subtract(BigInteger[] a, BigInteger[] b){
+                BigInteger[] c = new BigInteger[m];
+                for (int i = 0; i < m; i++) c[i] = a[i].subtract(b[i]);
+                return c;
+            }
+            public BigInteger[] mul(BigInteger[] a, BigInteger[] b){
+                BigInteger[] c = new BigInteger[m];
+                for (int i = 0; i < m; i++) c[i] = a[i].multiply(b[i]);
+                return c;
+            }
+            public boolean isZero(BigInteger[] a){
+                for (BigInteger x : a) if (x.signum() != 0) return false;
+                return true;
+            }
+        };
+    }
+
+    private final Semiring<V> sr;
+    private final Leaf<V> leaf;
+    private final int[] top;
+    /** f 表按 fBase[袋] + 层、g 表按子袋（均为 TDNode.index），键为 DpStore.key(r, s)；用到时才建 */
+    private final int[] fBase;
+    private final List<Map<Long, V>> fMemo, gMemo;
+
+    SemiringDp(Hypergraph H, TreeDecomposition T, Semiring<V> sr, Leaf<V> leaf){
+        super(new Engine.Shared(H.conflictEdges, H.conflictCliques, T), null, H.solutionEdges);
+        this.sr = sr; this.leaf = leaf;
+        int nb = S.bags.length;
+        top = new int[nb];
+        fBase = new int[nb];
+        int levels = 0;
+        for (int i = 0; i < nb; i++) {
+            int[] elems = S.bags[i].bagElems;
+            Set<Integer> up = new HashSet<>();
+            if (S.parent[i] >= 0) for (int g : S.bags[S.parent[i]].bagElems) up.add(g);
+            for (int j = 0; j < elems.length; j++) if (!up.contains(elems[j])) top[i] |= 1 << j;
+            fBase[i] = levels;
+            levels += S.bags[i].children.size() + 1;
+        }
+        fMemo = new ArrayList<>(Collections.nCopies(levels, null));
+        gMemo = new ArrayList<>(Collections.nCopies(nb, null));
+    }
+
+    /** 根袋上对全部 r 求和（s = 整袋，同 Engine.numberFalsify） */
+    V evaluate(){
+        TDNode a = T.root;
+        int all = (1 << a.children.size()) - 1, full = (1 << a.bagElems.length) - 1;
+        V total = sr.zero();
+        for (int r = 0; r <= full; r++) total = sr.add(total, f(a, all, r, full));
+        return total;
+    }
+
+    V zero(){ return sr.zero(); }
+    V add(V a, V b){ return sr.add(a, b); }
+    V subtract(V a, V b){ return sr.subtract(a, b); }
+    V mul(V a, V b){ return sr.mul(a, b); }
+    boolean isZero(V a){ return sr.isZero(a); }
+
+    @SuppressWarnings("unchecked")
+    V[] newArray(int n){ return (V[]) new Object[n]; }  // 只在 Recurrence 内部使用，不外传
+
+    V leaf(TDNode b, int rMask, boolean sol){ return leaf.at(b, rMask, top[b.index], sol); }
+
+    V fGet(TDNode b, int level, int rMask, int sMask){ return get(fMemo, fBase[b.index] + level, rMask, sMask); }
+    void fPut(TDNode b, int level, int rMask, int sMask, V v){ put(fMemo, fBase[b.index] + level, rMask, sMask, v); }
+    V gGet(TDNode b, int childIdx, int rInter, int sInter){ return get(gMemo, b.children.get(childIdx).index, rInter, sInter); }
+    void gPut(TDNode b, int childIdx, int rInter, int sInter, V v){ put(gMemo, b.children.get(childIdx).index, rInter, sInter, v); }
+
+    private V get(List<Map<Long, V>> memo, int i, int r, int s){
+        Map<Long, V> t = memo.get(i);
+        return t == null ? null : t.get(DpStore.key(r, s));
+    }
+    private void put(List<Map<Long, V>> memo, int i, int r, int s, V v){
+        Map<Long, V> t = memo.get(i);
+        if (t == null) memo.set(i, t = new HashMap<>());
+        t.put(DpStore.key(r, s), v);
+    }
+
+    /* ---------- repair 总数 / 证伪数 / 加权量 ---------- */
+
+    /**
+     * 按事实的权重：顶点（0 基）在 repair 里乘 in，不在乘 out，全部整数；真实值 = DP 结果 / 10^scale × factor。
+     * 小数权重按公共的 10^d 放大，“不在”的因子是 10^d，所以每个点贡献 d 位、scale = d × 点数，不依赖 |R|。
+     * 化简并掉的假孪生与代表同进同出：因子乘到代表上；无冲突点必在每个 repair 中，权重进 factor。
+     */
+    static final class Weights {
+        final Map<Integer, BigInteger> in = new HashMap<>(), out = new HashMap<>();
+        BigDecimal factor = BigDecimal.ONE;
+        int scale;
+
+        /**
+         * @param w       1 基原始行号 -> 权重（缺的按 1）
+         * @param red     事实化简（null 表示未化简）
+         * @param tdNodes 进 DP 的顶点（1 基）
+         */
+        static Weights of(Map<Integer, BigDecimal> w, FactReduction red, Set<Integer> tdNodes){
+            Weights x = new Weights();
+            List<Integer> scope = new ArrayList<>(tdNodes);
+            if (red != null) scope.addAll(red.rep.keySet());
+            int d = 0;
+            for (int v : scope) d = Math.max(d, w.getOrDefault(v, BigDecimal.ONE).stripTrailingZeros().scale());
+            BigInteger D = BigInteger.TEN.pow(d);
+            int n = 0;
+            for (int v : tdNodes) {
+                x.in.put(v - 1, scaled(w, v, d));
+                x.out.put(v - 1, D);
+                n++;
+            }
+            if (red != null) {
+                for (Map.Entry<Integer, Integer> e : red.rep.entrySet()) {
+                    int v = e.getKey(), u = e.getValue();
+                    if (u == FactReduction.CONFLICT_FREE) { x.factor = x.factor.multiply(w.getOrDefault(v, BigDecimal.ONE)); continue; }
+                    x.in.merge(u - 1, scaled(w, v, d), BigInteger::multiply);
+                    x.out.merge(u - 1, D, BigInteger::multiply);
+                    n++;
+                }
+            }
+            x.scale = d * n;
+            return x;
+        }
+
+        private static BigInteger scaled(Map<Integer, BigDecimal> w, int v, int d){
+            return w.getOrDefault(v, BigDecimal.ONE).movePointRight(d).toBigIntegerExact();
+        }
+
+        BigDecimal value(BigInteger dp){ return new BigDecimal(dp, scale).multiply(factor); }
+    }
+
+    /** 一趟 DP 的结果；没给权重时加权的两个量为 null */
+    static final class Measures {
+        final BigInteger total, falsify;
+        final BigDecimal weightedTotal, weightedFalsify;
+
+        Measures(BigInteger total, BigInteger falsify, BigDecimal weightedTotal, BigDecimal weightedFalsify){
+            this.total = total; this.falsify = falsify;
+            this.weightedTotal = weightedTotal; this.weightedFalsify = weightedFalsify;
+        }
+
+        /** 查询成立的比例 1 - falsify / total（total 为 0 时 null） */
+        static BigDecimal frequency(BigDecimal falsify, BigDecimal total){
+            if (total.signum() == 0) return null;
+            return BigDecimal.ONE.subtract(falsify.divide(total, MathContext.DECIMAL64), MathContext.DECIMAL64);
+        }
+
+        BigDecimal frequency(){ return frequency(new BigDecimal(falsify), new BigDecimal(total)); }
+        BigDecimal weightedFrequency(){ return weightedTotal == null ? null : frequency(weightedFalsify, weightedTotal); }
+
+        String summary(){
+            String s = "total=" + total + " falsify=" + falsify + " frequency=" + frequency();
+            if (weightedTotal != null)
+                s += " weighted_total=" + weightedTotal.round(MathContext.DECIMAL64)
+                        + " weighted_falsify=" + weightedFalsify.round(MathContext.DECIMAL64)
+                        + " weighted_frequency=" + weightedFrequency();
+            return s;
+        }
+
+        void write(Path file) throws IOException {
+            StringBuilder sb = new StringBuilder();
+            sb.append("total ").append(total).append('\n');
+            sb.append("falsify ").append(falsify).append('\n');
+            sb.append("frequency ").append(frequency()).append('\n');
+            if (weightedTotal != null) {
+                sb.append("weighted_total ").append(weightedTotal.round(MathContext.DECIMAL128)).append('\n');
+                sb.append("weighted_falsify ").append(weightedFalsify.round(MathContext.DECIMAL128)).append('\n');
+                sb.append("weighted_frequency ").append(weightedFrequency()).append('\n');
+            }
+            Files.writeString(file, sb.toString());
+        }
+    }
+
+    /**
+     * 向量 [总数, 证伪数] 或 [总数, 证伪数, 加权总数, 加权证伪数]：叶子上含解边的状态只在“证伪”分量上为 0，
+     * 加权分量乘上袋内最高点的 in / out 因子。
+     */
+    static Measures measures(Hypergraph H, TreeDecomposition T, Weights w){
+        int m = w == null ? 2 : 4;
+        Semiring<BigInteger[]> sr = counts(m);
+        BigInteger[] unit = sr.one(), unitFalse = {BigInteger.ONE, BigInteger.ZERO};
+        Leaf<BigInteger[]> leaf = (b, r, topMask, sol) -> {
+            if (w == null) return sol ? unitFalse : unit;
+            BigInteger p = BigInteger.ONE;
+            for (int j = 0; j < b.bagElems.length; j++) {
+                if (((topMask >> j) & 1) == 0) continue;
+                int g = b.bagElems[j];
+                p = p.multiply(((r >> j) & 1) != 0 ? w.in.getOrDefault(g, BigInteger.ONE) : w.out.getOrDefault(g, BigInteger.ONE));
+            }
+            return new BigInteger[]{BigInteger.ONE, sol ? BigInteger.ZERO : BigInteger.ONE, p, sol ? BigInteger.ZERO : p};
+        };
+        BigInteger[] v = new SemiringDp<>(H, T, sr, leaf).evaluate();
+        return new Measures(v[0], v[1], w == null ? null : w.value(v[2]), w == null ? null : w.value(v[3]));
+    }
+}
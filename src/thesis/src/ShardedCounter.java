@@ -0,0 +1,274 @@
+package thesis.src;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import thesis.src.Dynmaic_Programming_Based_for_CQA.*;
+
+/**
+ * 多进程分片计数（-Dcqa.shard.workers=N）：NUMBERFALSIFY 在联合图的连通分量上是乘积，
+ * 协调者把每个分量的子图连同限制到该分量上的树分解（与分量相交的袋构成一棵子树）
+ * 经管道发给本机的 worker JVM，收回各分量的 BigInteger 计数再相乘。
+ *  - worker：java thesis.src.ShardedCounter，stdin 收分片、stdout 回结果（见 write / read 的格式）
+ *  - 某个分量把 worker 撑爆（OOM、崩溃、异常）只影响该分片：worker 被重启，分片交给其他 worker 重试，
+ *    最多 -Dcqa.shard.attempts 次
+ *  - worker 继承本进程的 -Dcqa.* 设置；-Dcqa.shard.workerOpts 追加 JVM 参数（如 -Xmx4g）
+ */
+final class ShardedCounter {
+
+    static final int WORKERS = Integer.getInteger("cqa.shard.workers", 0);
+    static final int MAX_ATTEMPTS = Integer.getInteger("cqa.shard.attempts", 3);
+    static final String WORKER_OPTS = System.getProperty("cqa.shard.workerOpts", "");
+
+    /** 一个连通分量：局部 0 基顶点，袋以父指针给出（-1 = 根） */
+    static final class Shard {
+        final int id;
+        int n;
+        final List<int[]> conflict = new ArrayList<>(), cliques = new ArrayList<>(), solution = new ArrayList<>(), bags = new ArrayList<>();
+        final List<Integer> parent = new ArrayList<>();
+        int attempts = 0, lastSlot = -1;
+        Shard(int id){ this.id = id; }
+    }
+
+    /* ---------- 协调者 ---------- */
+
+    static BigInteger count(Hypergraph H, TreeDecomposition T) throws Exception {
+        List<Shard> shards = split(H, T);
+        System.out.println("[INFO] Sharded counting: components=" + shards.size() + " workers=" + WORKERS);
+        if (shards.isEmpty()) return BigInteger.ONE;
+
+        BlockingQueue<Shard> queue = new LinkedBlockingQueue<>(shards);
+        BigInteger[] results = new BigInteger[shards.size()];
+        AtomicInteger remaining = new AtomicInteger(shards.size());
+        String[] fatal = {null};
+        int slots = Math.min(Math.max(1, WORKERS), shards.size());
+        List<Thread> threads = new ArrayList<>();
+        for (int slot = 0; slot < slots; slot++) {
+            int me = slot;
+            threads.add(Thread.ofPlatform().name("shard-slot-" + slot).start(() -> {
+                Worker w = null;
+                try {
+                    while (remaining.get() > 0 && fatal[0] == null) {
+                        Shard s = queue.poll(50, TimeUnit.MILLISECONDS);
+                        if (s == null) continue;
+                        if (s.lastSlot == me && slots > 1) { queue.add(s); Thread.sleep(5); continue; } // 换个 worker 重试
+                        try {
+                            if (w == null) w = new Worker();
+                            results[s.id] = w.run(s);
+                            remaining.decrementAndGet();
+                        } catch (IOException | RuntimeException e) {
+                            if (w != null) w.destroy();
+                            w = null;
+                            s.lastSlot = me;
+                            if (++s.attempts >= MAX_ATTEMPTS) {
+                                fatal[0] = "shard " + s.id + " failed after " + s.attempts + " attempts: " + e;
+                            } else {
+                                System.err.println("[WARN] shard " + s.id + " failed (" + e + "); retrying");
+                                queue.add(s);
+                            }
+                        }
+                    }
+                } catch (InterruptedException ignored) {
+                } finally {
+                    if (w != null) w.shutdown();
+                }
+            }));
+        }
+        for (Thread t : threads) t.join();
+        if (fatal[0] != null) throw new IllegalStateException(fatal[0]);
+
+        BigInteger total = BigInteger.ONE;
+        for (BigInteger r : results) total = total.multiply(r);
+        return total;
+    }
+
+    /** 按 Ec ∪ Es 的连通分量切分；每个分量取与它相交的袋（先序，父袋先建） */
+    static List<Shard> split(Hypergraph H, TreeDecomposition T){
+        int maxV = H.n;
+        for (TDNode b : T.nodes.values()) for (int g : b.bagElems) maxV = Math.max(maxV, g + 1);
+        int[] uf = new int[maxV];
+        for (int i = 0; i < maxV; i++) uf[i] = i;
+        boolean[] used = new boolean[maxV];
+        List<BitSet> all = new ArrayList<>(H.conflictEdges);
+        all.addAll(H.solutionEdges);
+        all.addAll(H.conflictCliques);
+        for (BitSet e : all) {
+            int first = e.nextSetBit(0);
+            if (first < 0) continue;
+            for (int v = first; v >= 0; v = e.nextSetBit(v + 1)) { used[v] = true; union(uf, first, v); }
+        }
+
+        Map<Integer, Shard> byRoot = new LinkedHashMap<>();
+        int[] local = new int[maxV];
+        for (int v = 0; v < maxV; v++) {
+            if (!used[v]) continue;          // 不在任何边上的点（.gr 补的孤立点）必在 repair 中，因子为 1
+            Shard s = byRoot.computeIfAbsent(find(uf, v), r -> new Shard(byRoot.size()));
+            local[v] = s.n++;
+        }
+        for (BitSet e : H.conflictEdges) if (!e.isEmpty()) shardOf(e, uf, byRoot).conflict.add(localize(e, local));
+        for (BitSet e : H.solutionEdges) if (!e.isEmpty()) shardOf(e, uf, byRoot).solution.add(localize(e, local));
+        for (BitSet e : H.conflictCliques) if (!e.isEmpty()) shardOf(e, uf, byRoot).cliques.add(localize(e, local));
+
+        // 先序遍历 TD；每个分量记住“该袋在分量内的局部袋号”，子袋据此找父袋
+        Map<TDNode, Map<Integer,Integer>> bagIdx = new IdentityHashMap<>();
+        Map<TDNode, TDNode> parentOf = new IdentityHashMap<>();
+        Deque<TDNode> st = new ArrayDeque<>();
+        st.push(T.root);
+        while (!st.isEmpty()) {
+            TDNode b = st.pop();
+            for (TDNode c : b.children) { parentOf.put(c, b); st.push(c); }
+            Map<Integer, List<Integer>> parts = new LinkedHashMap<>();
+            for (int g : b.bagElems) if (used[g]) parts.computeIfAbsent(find(uf, g), r -> new ArrayList<>()).add(local[g]);
+            Map<Integer,Integer> mine = new HashMap<>();
+            for (Map.Entry<Integer, List<Integer>> p : parts.entrySet()) {
+                Shard s = byRoot.get(p.getKey());
+                TDNode par = parentOf.get(b);
+                Integer pi = par == null ? null : bagIdx.get(par).get(p.getKey());
+                mine.put(p.getKey(), s.bags.size());
+                s.bags.add(p.getValue().stream().mapToInt(Integer::intValue).toArray());
+                s.parent.add(pi == null ? -1 : pi);
+            }
+            bagIdx.put(b, mine);
+        }
+        return new ArrayList<>(byRoot.values());
+    }
+
+    private static Shard shardOf(BitSet e, int[] uf, Map<Integer, Shard> byRoot){
+        return byRoot.get(find(uf, e.nextSetBit(0)));
+    }
+
+    private static int[] localize(BitSet e, int[] local){
+        int[] out = new int[e.cardinality()];
+        int i = 0;
+        for (int v = e.nextSetBit(0); v >= 0; v = e.nextSetBit(v + 1)) out[i++] = local[v];
+        return out;
+    }
+
+    private static int find(int[] p, int x){
+        while (p[x] != x) { p[x] = p[p[x]]; x = p[x]; }
+        return x;
+    }
+    private static void union(int[] p, int a, int b){ p[find(p, a)] = find(p, b); }
+
+    /** 一个 worker 进程：一问一答，同一时刻只处理一个分片 */
+    private static final class Worker {
+        final Process proc;
+        final DataOutputStream out;
+        final DataInputStream in;
+
+        Worker() throws IOException {
+            List<String> cmd = new ArrayList<>();
+            cmd.add(ProcessHandle.current().info().command().orElse("java"));
+            if (ManagementFactory.getRuntimeMXBean().getInputArguments().contains("--enable-preview")) cmd.add("--enable-preview");
+            for (String k : System.getProperties().stringPropertyNames()) {
+                if (k.startsWith("cqa.") && !k.equals("cqa.shard.workers")) cmd.add("-D" + k + "=" + System.getProperty(k));
+            }
+            for (String o : WORKER_OPTS.trim().split("\\s+")) if (!o.isEmpty()) cmd.add(o);
+            cmd.add("-cp");
+            cmd.add(System.getProperty("java.class.path"));
+            cmd.add(ShardedCounter.class.getName());
+            proc = new ProcessBuilder(cmd).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            out = new DataOutputStream(new BufferedOutputStream(proc.getOutputStream()));
+            in = new DataInputStream(new BufferedInputStream(proc.getInputStream()));
+        }
+
+        BigInteger run(Shard s) throws IOException {
+            write(out, s);
+            out.flush();
+            int id = in.readInt();                         // worker 崩溃时这里 EOF
+            if (id != s.id) throw new IOException("protocol error: expected shard " + s.id + ", got " + id);
+            if (in.readBoolean()) {
+                byte[] b = new byte[in.readInt()];
+                in.readFully(b);
+                return new BigInteger(b);
+            }
+            throw new IOException(in.readUTF());
+        }
+
+        void shutdown(){
+            try { out.writeInt(-1); out.flush(); proc.waitFor(5, TimeUnit.SECONDS); }
+            catch (IOException | InterruptedException ignored) { }
+            destroy();
+        }
+        void destroy(){ proc.destroyForcibly(); }
+    }
+
+    /* ---------- 线路格式 ---------- */
+
+    static void write(DataOutputStream out, Shard s) throws IOException {
+        out.writeInt(s.id);
+        out.writeInt(s.n);
+        writeSets(out, s.conflict);
+        writeSets(out, s.cliques);
+        writeSets(out, s.solution);
+        writeSets(out, s.bags);
+        for (int p : s.parent) out.writeInt(p);
+    }
+
+    private static void writeSets(DataOutputStream out, List<int[]> sets) throws IOException {
+        out.writeInt(sets.size());
+        for (int[] e : sets) { out.writeInt(e.length); for (int v : e) out.writeInt(v); }
+    }
+
+    private static List<int[]> readSets(DataInputStream in) throws IOException {
+        int m = in.readInt();
+        List<int[]> sets = new ArrayList<>(m);
+        for (int i = 0; i < m; i++) {
+            int[] e = new int[in.readInt()];
+            for (int j = 0; j < e.length; j++) e[j] = in.readInt();
+            sets.add(e);
+        }
+        return sets;
+    }
+
+    /* ---------- worker ---------- */
+
+    public static void main(String[] args) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(FileDescriptor.in)));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        System.setOut(System.err); // stdout 只走协议
+        while (true) {
+            int id;
+            try { id = in.readInt(); } catch (EOFException eof) { return; }
+            if (id < 0) return;
+            int n = in.readInt();
+            List<int[]> ec = readSets(in), ek = readSets(in), es = readSets(in), bags = readSets(in);
+            int[] parent = new int[bags.size()];
+            for (int i = 0; i < parent.length; i++) parent[i] = in.readInt();
+            out.writeInt(id);
+            try {
+                BigInteger r = countShard(n, ec, ek, es, bags, parent);
+                byte[] b = r.toByteArray();
+                out.writeBoolean(true);
+                out.writeInt(b.length);
+                out.write(b);
+            } catch (Exception | OutOfMemoryError e) {
+                out.writeBoolean(false);
+                out.writeUTF(String.valueOf(e));
+            }
+            out.flush();
+        }
+    }
+
+    static BigInteger countShard(int n, List<int[]> ec, List<int[]> ek, List<int[]> es, List<int[]> bags, int[] parent){
+        List<BitSet> c = new ArrayList<>(), k = new ArrayList<>(), s = new ArrayList<>();
+        for (int[] e : ec) c.add(Dynmaic_Programming_Based_for_CQA.edge(e));
+        for (int[] e : ek) k.add(Dynmaic_Programming_Based_for_CQA.edge(e));
+        for (int[] e : es) s.add(Dynmaic_Programming_Based_for_CQA.edge(e));
+        TDNode[] nodes = new TDNode[bags.size()];
+        for (int i = 0; i < nodes.length; i++) nodes[i] = new TDNode(i + 1, bags.get(i));
+        TDNode root = null;
+        for (int i = 0; i < nodes.length; i++) {
+            if (parent[i] < 0) root = nodes[i];
+            else nodes[parent[i]].addChild(nodes[i]);
+        }
+        var H = new Hypergraph(n, c, k, s);
+        var T = new TreeDecomposition(root);
+        GraphIO.assertEdgeCoverage(H, T);
+        return new Engine(H, T).numberFalsify();
+    }
+}
@@ -0,0 +1,326 @@
+package thesis.src;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import thesis.src.Dynmaic_Programming_Based_for_CQA.TDNode;
+import thesis.src.Dynmaic_Programming_Based_for_CQA.TreeDecomposition;
+
+/**
+ * Engine 工作量的代价模型，以及据此换根、排孩子（-Dcqa.td.reroot=false 关闭）。
+ *
+ * 袋 b（k 个点）、父分隔 P、孩子 c_0..c_{m-1}（I_j = b ∩ c_j）：
+ *  - 第 j 层 f 的 s 只在 U_j = P ∪ I_0 ∪ … ∪ I_{j-1} 上变化，状态数 S_j = 3^|U_j| · 2^(k-|U_j|)（根上 P = ∅）
+ *  - 第 j 层与孩子 j 的覆盖合并约 S_j · 2^|I_j|，叶层 S_m 次 h 检查
+ *  - 孩子 c 的 g 表 3^|I| 个状态，各累加 2^(|c|-|I|) 个 f（记在孩子一侧）
+ * 孩子按给 U 新增的点数从少到多排（U 长得越慢，后面各层的状态越少）；
+ * 根取总代价最小的袋：换根到相邻袋时只有这两个袋的代价改变，整棵树 O(袋数) 次局部重算。
+ * 同一模型也给 DP 之前的预估（estimate）：缓存条目、内存与时间，供 Main 的准入控制。
+ */
+final class TdCostModel {
+
+    static final boolean REROOT = !"false".equals(System.getProperty("cqa.td.reroot"));
+
+    /**
+     * 预估用的换算：每个代价单位的纳秒数、每个缓存条目的字节数
+     * （heap：HashMap 节点 + 键 + BigInteger；offheap / mmap：键字 + 一个值字，装载因子 1/2）
+     */
+    static final double NS_PER_UNIT = Double.parseDouble(System.getProperty("cqa.estimate.nsPerUnit", "15"));
+    static final int BYTES_PER_ENTRY = Integer.getInteger("cqa.estimate.bytesPerEntry", DpStore.MODE.equals("heap") ? 120 : 32);
+
+    /** Engine 的孩子掩码是 int */
+    private static final int MAX_CHILDREN = 30;
+    /** 度数更大的袋不做贪心，只按分隔大小排 */
+    private static final int GREEDY_MAX_DEGREE = 32;
+
+    private final TDNode[] nodes;
+    private final int[][] nbr;          // 相邻袋下标
+    private final int[][] sepSize;      // sepSize[v][i] = |bag(v) ∩ bag(nbr[v][i])|
+    private final BitSet[][] sep;       // 分隔在 v 的袋内局部位
+
+    private TdCostModel(TreeDecomposition T){
+        nodes = T.nodes.values().toArray(new TDNode[0]);
+        Map<TDNode,Integer> idx = new IdentityHashMap<>();
+        for (int i = 0; i < nodes.length; i++) idx.put(nodes[i], i);
+        List<List<Integer>> adj = new ArrayList<>();
+        for (int i = 0; i < nodes.length; i++) adj.add(new ArrayList<>());
+        for (TDNode b : nodes) for (TDNode c : b.children) {
+            adj.get(idx.get(b)).add(idx.get(c));
+            adj.get(idx.get(c)).add(idx.get(b));
+        }
+        nbr = new int[nodes.length][];
+        sep = new BitSet[nodes.length][];
+        sepSize = new int[nodes.length][];
+        for (int v = 0; v < nodes.length; v++) {
+            nbr[v] = adj.get(v).stream().mapToInt(Integer::intValue).toArray();
+            sep[v] = new BitSet[nbr[v].length];
+            sepSize[v] = new int[nbr[v].length];
+            int[] a = nodes[v].bagElems;
+            for (int i = 0; i < nbr[v].length; i++) {
+                int[] b = nodes[nbr[v][i]].bagElems;
+                BitSet s = new BitSet();
+                sepSize[v][i] = intersect(a, b, s);
+                sep[v][i] = s;
+            }
+        }
+    }
+
+    /** 按模型换根并重排孩子（原地改 children），记录前后的估计代价 */
+    static TreeDecomposition plan(TreeDecomposition T){
+        if (!REROOT || T.nodes.size() < 2) return T;
+        TdCostModel m = new TdCostModel(T);
+        double before = m.asLoaded(T);
+        int best = m.bestRoot(T);
+        double after = m.total(best);
+        if (!(after < before)) {
+            System.out.printf("[INFO] TD cost model: ~%.3g (kept as loaded)%n", before);
+            return T;
+        }
+        TreeDecomposition R = m.rebuild(best);
+        System.out.printf("[INFO] TD cost model: as loaded ~%.3g, root bag %d with ordered children ~%.3g (%.3gx less)%n",
+                before, R.root.id, after, before / after);
+        return R;
+    }
+
+    /** numberFalsify 的预估（按状态全部可达估计，是上界性质的量级，不是精确值） */
+    static final class Estimate {
+        int bags, width, maxChildren, maxSeparator;
+        long hyperedges;
+        double units, entries, bytes, millis;
+
+        String summary(){
+            return String.format("bags=%d width=%d entries~%.3g memory~%.3gMB time~%.3gs",
+                    bags, width, entries, bytes / (1 << 20), millis / 1000);
+        }
+
+        /** 写在 _solution_treewidth.txt 旁边；decision 为准入结果 */
+        void write(Path out, String decision) throws IOException {
+            Files.createDirectories(out.getParent());
+            Files.writeString(out, String.format(
+                    "bags=%d%nwidth=%d%nmax_children=%d%nmax_separator=%d%nhyperedges=%d%n"
+                  + "cost_units=%.6g%nmemo_entries=%.6g%nmemory_mb=%.6g%ntime_s=%.6g%ndecision=%s%n",
+                    bags, width, maxChildren, maxSeparator, hyperedges, units, entries, bytes / (1 << 20), millis / 1000, decision));
+        }
+    }
+
+    /**
+     * 按当前根与孩子顺序预估：代价单位同 plan；条目 = 各层 f 状态 + 孩子的 g 表（非根袋第 0 层不存），
+     * 叶层每个状态的 h 检查另按袋均摊的超边数计。DpStore 在堆外时内存取后序上同时存活的条目的峰值：
+     * 填袋 b 的 g 表时 b 的各层 f、b 的 g 与 b 的孩子的 g 同时存活，之后 b 的 f 与孩子的 g 即被释放。
+     */
+    static Estimate estimate(TreeDecomposition T, long hyperedges){
+        Estimate e = new Estimate();
+        e.bags = T.nodes.size();
+        e.hyperedges = hyperedges;
+        double perBag = (double) hyperedges / Math.max(1, e.bags);
+        Deque<TDNode> st = new ArrayDeque<>();
+        Map<TDNode,TDNode> parent = new IdentityHashMap<>();
+        Map<TDNode,Double> fLive = new IdentityHashMap<>(), gLive = new IdentityHashMap<>();
+        List<TDNode> pre = new ArrayList<>();
+        st.push(T.root);
+        while (!st.isEmpty()) {
+            TDNode b = st.pop();
+            pre.add(b);
+            double fe = 0;
+            int k = b.bagElems.length, m = b.children.size();
+            e.width = Math.max(e.width, k - 1);
+            e.maxChildren = Math.max(e.maxChildren, m);
+            BitSet U = new BitSet();
+            TDNode p = parent.get(b);
+            if (p != null) {
+                int ps = intersect(b.bagElems, p.bagElems, U);
+                e.entries += Math.pow(3, ps);                                  // 本袋在父袋里的 g 表
+                gLive.put(b, Math.pow(3, ps));
+                e.units += Math.pow(3, ps) * Math.pow(2, k - ps);
+            }
+            for (int j = 0; j <= m; j++) {
+                int u = U.cardinality();
+                double states = Math.pow(3, u) * Math.pow(2, k - u);
+                if (j > 0 || p == null) { e.entries += states; fe += states; }
+                if (j < m) {
+                    TDNode c = b.children.get(j);
+                    BitSet I = new BitSet();
+                    int is = intersect(b.bagElems, c.bagElems, I);
+                    e.maxSeparator = Math.max(e.maxSeparator, is);
+                    e.units += states * Math.pow(2, is);
+                    U.or(I);
+                    parent.put(c, b);
+                    st.push(c);
+                } else {
+                    e.units += states * (1 + perBag);
+                }
+            }
+            fLive.put(b, fe);
+        }
+        double peak = e.entries;
+        if (!DpStore.MODE.equals("heap")) {                                     // 先序倒过来：每棵子树在其根之前连续完成
+            double live = 0;
+            peak = 0;
+            for (int i = pre.size() - 1; i >= 0; i--) {
+                TDNode b = pre.get(i);
+                live += fLive.get(b) + gLive.getOrDefault(b, 0.0);
+                peak = Math.max(peak, live);
+                live -= fLive.get(b);
+                for (TDNode c : b.children) live -= gLive.get(c);
+            }
+        }
+        e.bytes = peak * BYTES_PER_ENTRY;
+        e.millis = e.units * NS_PER_UNIT / 1e6;
+        return e;
+    }
+
+    /** |a ∩ b|，交集在 a 中的下标记入 out（两者升序） */
+    private static int intersect(int[] a, int[] b, BitSet out){
+        int n = 0;
+        for (int x = 0, y = 0; x < a.length && y < b.length; ) {
+            if (a[x] < b[y]) x++;
+            else if (a[x] > b[y]) y++;
+            else { out.set(x); n++; x++; y++; }
+        }
+        return n;
+    }
+
+    /* ---------- 局部代价 ---------- */
+
+    /** 袋 v 在父袋 nbr[v][pi]（pi = -1 为根）下、孩子按 order（nbr 下标）处理时的代价 */
+    private double localCost(int v, int pi, int[] order){
+        if (order.length > MAX_CHILDREN) return Double.POSITIVE_INFINITY;
+        int k = nodes[v].bagElems.length;
+        BitSet U = pi < 0 ? new BitSet() : (BitSet) sep[v][pi].clone();
+        double c = pi < 0 ? 0 : Math.pow(3, sepSize[v][pi]) * Math.pow(2, k - sepSize[v][pi]); // 本袋作为孩子的 g 表
+        for (int i : order) {
+            int u = U.cardinality();
+            c += Math.pow(3, u) * Math.pow(2, k - u) * Math.pow(2, sepSize[v][i]);
+            U.or(sep[v][i]);
+        }
+        int u = U.cardinality();
+        return c + Math.pow(3, u) * Math.pow(2, k - u);
+    }
+
+    /** 贪心：每次取给 U 新增点数最少的孩子（相同则分隔小者先） */
+    private int[] order(int v, int pi){
+        int d = nbr[v].length;
+        int[] out = new int[pi < 0 ? d : d - 1];
+        int n = 0;
+        if (d > GREEDY_MAX_DEGREE) {
+            Integer[] o = new Integer[d];
+            for (int i = 0; i < d; i++) o[i] = i;
+            Arrays.sort(o, Comparator.comparingInt(i -> sepSize[v][i]));
+            for (int i : o) if (i != pi) out[n++] = i;
+            return out;
+        }
+        boolean[] used = new boolean[d];
+        if (pi >= 0) used[pi] = true;
+        BitSet U = pi < 0 ? new BitSet() : (BitSet) sep[v][pi].clone();
+        while (n < out.length) {
+            int pick = -1, bestNew = Integer.MAX_VALUE;
+            for (int i = 0; i < d; i++) {
+                if (used[i]) continue;
+                BitSet t = (BitSet) sep[v][i].clone();
+                t.andNot(U);
+                int nw = t.cardinality();
+                if (nw < bestNew || (nw == bestNew && sepSize[v][i] < sepSize[v][pick])) { pick = i; bestNew = nw; }
+            }
+            used[pick] = true;
+            out[n++] = pick;
+            U.or(sep[v][pick]);
+        }
+        return out;
+    }
+
+    private double cost(int v, int pi){ return localCost(v, pi, order(v, pi)); }
+
+    /* ---------- 整棵树 ---------- */
+
+    private double asLoaded(TreeDecomposition T){
+        Map<TDNode,Integer> idx = new IdentityHashMap<>();
+        for (int i = 0; i < nodes.length; i++) idx.put(nodes[i], i);
+        double total = 0;
+        Deque<TDNode> st = new ArrayDeque<>();
+        Map<TDNode,TDNode> parent = new IdentityHashMap<>();
+        st.push(T.root);
+        while (!st.isEmpty()) {
+            TDNode b = st.pop();
+            int v = idx.get(b);
+            TDNode p = parent.get(b);
+            int pi = p == null ? -1 : indexOf(nbr[v], idx.get(p));
+            int[] ord = new int[b.children.size()];
+            for (int j = 0; j < ord.length; j++) {
+                TDNode c = b.children.get(j);
+                ord[j] = indexOf(nbr[v], idx.get(c));
+                parent.put(c, b);
+                st.push(c);
+            }
+            total += localCost(v, pi, ord);
+        }
+        return total;
+    }
+
+    /** 以下标 r 为根的总代价 */
+    private double total(int r){
+        double t = 0;
+        int[] par = parents(r);
+        for (int v = 0; v < nodes.length; v++) t += cost(v, par[v] < 0 ? -1 : indexOf(nbr[v], par[v]));
+        return t;
+    }
+
+    /** 从已加载的根出发逐边换根：total(w) = total(u) - c(u|根) - c(w|u) + c(u|w) + c(w|根) */
+    private int bestRoot(TreeDecomposition T){
+        int r0 = 0;
+        for (int i = 0; i < nodes.length; i++) if (nodes[i] == T.root) r0 = i;
+        double[] tot = new double[nodes.length];
+        tot[r0] = total(r0);
+        int best = r0;
+        boolean[] seen = new boolean[nodes.length];
+        Deque<Integer> dq = new ArrayDeque<>();
+        dq.add(r0); seen[r0] = true;
+        while (!dq.isEmpty()) {
+            int u = dq.poll();
+            for (int i = 0; i < nbr[u].length; i++) {
+                int w = nbr[u][i];
+                if (seen[w]) continue;
+                seen[w] = true;
+                int wi = indexOf(nbr[w], u);
+                tot[w] = tot[u] - cost(u, -1) - cost(w, wi) + cost(u, i) + cost(w, -1);
+                if (tot[w] < tot[best]) best = w;
+                dq.add(w);
+            }
+        }
+        return best;
+    }
+
+    private TreeDecomposition rebuild(int r){
+        for (TDNode b : nodes) b.children.clear();
+        int[] par = parents(r);
+        Deque<Integer> dq = new ArrayDeque<>();
+        dq.add(r);
+        while (!dq.isEmpty()) {
+            int v = dq.poll();
+            for (int i : order(v, par[v] < 0 ? -1 : indexOf(nbr[v], par[v]))) {
+                nodes[v].addChild(nodes[nbr[v][i]]);
+                dq.add(nbr[v][i]);
+            }
+        }
+        return new TreeDecomposition(nodes[r]);
+    }
+
+    private int[] parents(int r){
+        int[] par = new int[nodes.length];
+        Arrays.fill(par, -2);
+        par[r] = -1;
+        Deque<Integer> dq = new ArrayDeque<>();
+        dq.add(r);
+        while (!dq.isEmpty()) {
+            int v = dq.poll();
+            for (int w : nbr[v]) if (par[w] == -2) { par[w] = v; dq.add(w); }
+        }
+        return par;
+    }
+
+    private static int indexOf(int[] a, int x){
+        for (int i = 0; i < a.length; i++) if (a[i] == x) return i;
+        return -1;
+    }
+}
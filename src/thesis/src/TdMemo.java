@@ -0,0 +1,63 @@
+package thesis.src;
+
+import java.util.*;
+
+/**
+ * 服务模式下一张表的树分解常驻表：键为规范化的联合图（排序的顶点、边与团），值为已按代价模型规划好的分解。
+ * 命中时不写 .gr、不查 ArtifactCache、不跑 ExactTW，也不重读 .td；未命中才走 Main.decompose。
+ * 按 LRU 最多保留 -Dcqa.service.tds 个（默认 256）；reload 时整体清空。
+ */
+final class TdMemo {
+
+    static final int MAX = Integer.getInteger("cqa.service.tds", 256);
+
+    private final Map<Key, Dynmaic_Programming_Based_for_CQA.TreeDecomposition> map =
+            Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+                @Override protected boolean removeEldestEntry(Map.Entry<Key, Dynmaic_Programming_Based_for_CQA.TreeDecomposition> eldest){
+                    return size() > MAX;
+                }
+            });
+
+    /** 命中返回一份独立的副本（Engine.Shared 会改写 TDNode.index，并发请求不能共用同一棵树） */
+    Dynmaic_Programming_Based_for_CQA.TreeDecomposition get(Key k){
+        Dynmaic_Programming_Based_for_CQA.TreeDecomposition td = map.get(k);
+        return td == null ? null : td.copy();
+    }
+
+    void put(Key k, Dynmaic_Programming_Based_for_CQA.TreeDecomposition td){ map.put(k, td.copy()); }
+
+    void clear(){ map.clear(); }
+
+    /** 分解宽度（最大袋大小 - 1），与 Main.readTw 对 .td 文件的结果一致 */
+    static int width(Dynmaic_Programming_Based_for_CQA.TreeDecomposition td){
+        int max = 0;
+        for (Dynmaic_Programming_Based_for_CQA.TDNode b : td.nodes.values()) max = Math.max(max, b.bagElems.length);
+        return Math.max(0, max - 1);
+    }
+
+    /** 规范化联合图：与 HashSet 的遍历顺序无关，直接按内容比较（不求摘要） */
+    static final class Key {
+        private final int[] nodes;
+        private final long[] edges;
+        private final int[][] cliques;
+        private final int hash;
+
+        private Key(int[] nodes, long[] edges, int[][] cliques){
+            this.nodes = nodes; this.edges = edges; this.cliques = cliques;
+            this.hash = 31 * (31 * Arrays.hashCode(nodes) + Arrays.hashCode(edges)) + Arrays.deepHashCode(cliques);
+        }
+
+        static Key of(Set<Integer> nodes, Set<Long> edges, List<int[]> cliques){
+            int[][] cs = cliques.toArray(new int[0][]);
+            Arrays.sort(cs, Arrays::compare);
+            return new Key(nodes.stream().mapToInt(Integer::intValue).sorted().toArray(),
+                    edges.stream().mapToLong(Long::longValue).sorted().toArray(), cs);
+        }
+
+        @Override public boolean equals(Object o){
+            return o instanceof Key k && hash == k.hash && Arrays.equals(nodes, k.nodes)
+                    && Arrays.equals(edges, k.edges) && Arrays.deepEquals(cliques, k.cliques);
+        }
+        @Override public int hashCode(){ return hash; }
+    }
+}
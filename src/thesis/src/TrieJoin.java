@@ -0,0 +1,238 @@
+package thesis.src;
+
+import java.util.*;
+
+/**
+ * BCQ 的等值连接部分用 Leapfrog Triejoin 求（-Dcqa.bcq.join=auto|lftj|backtrack，auto 见 applies）。
+ * 连接变量是等值原子把 (元组变量, 列) 连起来的等价类；每个元组变量的候选行按它参与的类
+ * （全局顺序）的字典码做字典序排序，就是一棵按层展开的 trie。逐个类做 leapfrog 求交：
+ * 各参与者在当前区间里跳到不小于当前最大码的位置（倍增 + 二分），全部相等即一个匹配，
+ * 区间收窄到该码后进入下一个类。中间结果不超过 AGM 界，三角形这类环状查询不会像逐变量回溯那样先做笛卡尔积。
+ * 所有类都绑定后，各元组变量剩下的行区间两两已满足等值原子，再逐变量回溯检查 != / < 等其余原子
+ * （CompiledClause.testAt；等值原子会再测一次，恒为真）。赋值最后按行号字典序排好再产出，
+ * 与 Main.backtrackBCQ 的产出顺序一致，解图文件逐字节不变。
+ * 空值不等于任何值（同 Main.cmp），含空连接列的行一开始就筛掉。
+ */
+final class TrieJoin {
+
+    static final String MODE = System.getProperty("cqa.bcq.join", "auto");
+
+    /** lftj 强制使用；backtrack 从不使用；auto：存在两个不同元组变量之间的等值原子 */
+    static boolean applies(Main.BCQ q){
+        switch (MODE) {
+            case "lftj": return true;
+            case "backtrack": return false;
+            case "auto": break;
+            default: throw new IllegalArgumentException("cqa.bcq.join must be auto, lftj or backtrack: " + MODE);
+        }
+        for (Main.DCAtom a : q.atoms) if (isJoin(a) && !a.lVar.equals(a.rVar)) return true;
+        return false;
+    }
+
+    private static boolean isJoin(Main.DCAtom a){
+        return !a.isConst && (a.op.equals("=") || a.op.equals("=="));
+    }
+
+    private final int nVars;
+    /** 按类的全局顺序：参与的元组变量及其在该变量 trie 中的层号 */
+    private int[][] partVar, partLevel;
+    /** 每个元组变量：排好序的行、各层的码（keys[t][level][i] 对应 rows[t][i]） */
+    private int[][] rows;
+    private int[][][] keys;
+    private final int[] lo, hi;
+
+    private TrieJoin(int nVars){ this.nVars = nVars; lo = new int[nVars]; hi = new int[nVars]; }
+
+    /**
+     * cand[t] = 第 t 个变量的候选行（已按常量原子筛过，升序）；witness 追加到 res（0 基行号，同 backtrackBCQ）。
+     */
+    static void enumerate(Main.Facts facts, Main.BCQ q, int[][] cand, CompiledClause cq, List<int[]> res){
+        TrieJoin j = new TrieJoin(q.vars.size());
+        if (!j.build(facts.index, q, cand)) return;
+        List<int[]> found = new ArrayList<>();
+        j.join(0, cq, found);
+        found.sort(Arrays::compare);
+        for (int[] rows : found) res.add(Arrays.stream(rows).distinct().sorted().toArray());
+    }
+
+    /** 建类与各变量的 trie；某个变量筛完没有行时返回 false */
+    private boolean build(ColumnIndex ci, Main.BCQ q, int[][] cand){
+        // 1) (变量, 列) 按等值原子并查
+        Map<String, Integer> node = new LinkedHashMap<>();
+        List<int[]> nodeOf = new ArrayList<>();          // 节点 -> {变量下标}
+        List<String> attrOf = new ArrayList<>();
+        List<int[]> joins = new ArrayList<>();
+        for (Main.DCAtom a : q.atoms) {
+            if (!isJoin(a)) continue;
+            int l = q.vars.indexOf(a.lVar), r = q.vars.indexOf(a.rVar);
+            if (l < 0 || r < 0) continue;
+            joins.add(new int[]{id(node, nodeOf, attrOf, l, a.lAttr), id(node, nodeOf, attrOf, r, a.rAttr)});
+        }
+        int[] uf = new int[nodeOf.size()];
+        for (int i = 0; i < uf.length; i++) uf[i] = i;
+        for (int[] e : joins) uf[find(uf, e[0])] = find(uf, e[1]);
+
+        // 2) 类 -> 每个变量在该类里的列（同一变量的多列须两两相等，先在行上筛）
+        Map<Integer, Map<Integer, List<String>>> classes = new LinkedHashMap<>();
+        for (int i = 0; i < uf.length; i++) {
+            classes.computeIfAbsent(find(uf, i), k -> new TreeMap<>())
+                   .computeIfAbsent(nodeOf.get(i)[0], k -> new ArrayList<>()).add(attrOf.get(i));
+        }
+        List<Map<Integer, List<String>>> cls = new ArrayList<>(classes.values());
+
+        // 3) 类的顺序：参与变量多的先；之后优先与已选类共享变量的（保持连通，尽早收窄区间）
+        List<Map<Integer, List<String>>> order = new ArrayList<>();
+        boolean[] bound = new boolean[nVars];
+        while (!cls.isEmpty()) {
+            Map<Integer, List<String>> best = null;
+            int bestShared = -1;
+            for (Map<Integer, List<String>> c : cls) {
+                int shared = 0;
+                for (int t : c.keySet()) if (bound[t]) shared++;
+                if (best == null || shared > bestShared || (shared == bestShared && c.size() > best.size())) { best = c; bestShared = shared; }
+            }
+            cls.remove(best);
+            order.add(best);
+            for (int t : best.keySet()) bound[t] = true;
+        }
+
+        // 4) 每个变量：筛掉连接列为空或同类多列不等的行，再按各层码排序
+        int m = order.size();
+        List<List<Integer>> levelsOf = new ArrayList<>();  // 变量 -> 它参与的类（全局序号，升序）
+        for (int t = 0; t < nVars; t++) levelsOf.add(new ArrayList<>());
+        partVar = new int[m][];
+        partLevel = new int[m][];
+        for (int c = 0; c < m; c++) {
+            Set<Integer> ts = order.get(c).keySet();
+            partVar[c] = new int[ts.size()];
+            partLevel[c] = new int[ts.size()];
+            int p = 0;
+            for (int t : ts) {
+                partVar[c][p] = t;
+                partLevel[c][p++] = levelsOf.get(t).size();
+                levelsOf.get(t).add(c);
+            }
+        }
+        rows = new int[nVars][];
+        keys = new int[nVars][][];
+        for (int t = 0; t < nVars; t++) {
+            List<Integer> lv = levelsOf.get(t);
+            int[][] code = new int[lv.size()][];
+            List<Integer> sameLevel = new ArrayList<>();       // 同类的其余列须与该层第一列同码
+            List<int[]> sameCode = new ArrayList<>();
+            for (int l = 0; l < lv.size(); l++) {
+                List<String> attrs = order.get(lv.get(l)).get(t);
+                code[l] = ci.coded(attrs.get(0)).code;
+                for (int i = 1; i < attrs.size(); i++) { sameLevel.add(l); sameCode.add(ci.coded(attrs.get(i)).code); }
+            }
+            int[] r = new int[cand[t].length];
+            int n = 0;
+            next:
+            for (int row : cand[t]) {
+                for (int[] c : code) if (c[row] < 0) continue next;
+                for (int i = 0; i < sameCode.size(); i++) if (sameCode.get(i)[row] != code[sameLevel.get(i)][row]) continue next;
+                r[n++] = row;
+            }
+            if (n == 0) return false;
+            r = sortRows(Arrays.copyOf(r, n), code);
+            rows[t] = r;
+            keys[t] = new int[code.length][n];
+            for (int l = 0; l < code.length; l++) for (int i = 0; i < n; i++) keys[t][l][i] = code[l][r[i]];
+            lo[t] = 0;
+            hi[t] = n;
+        }
+        return true;
+    }
+
+    private static int id(Map<String, Integer> node, List<int[]> nodeOf, List<String> attrOf, int t, String attr){
+        return node.computeIfAbsent(t + "\u0000" + attr, k -> {
+            nodeOf.add(new int[]{t});
+            attrOf.add(attr);
+            return nodeOf.size() - 1;
+        });
+    }
+
+    private static int find(int[] uf, int x){
+        while (uf[x] != x) x = uf[x] = uf[uf[x]];
+        return x;
+    }
+
+    /** 按 (code[0][row], code[1][row], …) 字典序：从最后一层起逐层稳定排序（码 << 32 | 当前位置） */
+    private static int[] sortRows(int[] r, int[][] code){
+        long[] tmp = new long[r.length];
+        for (int l = code.length - 1; l >= 0; l--) {
+            for (int i = 0; i < r.length; i++) tmp[i] = ((long) code[l][r[i]] << 32) | i;
+            Arrays.sort(tmp);
+            int[] next = new int[r.length];
+            for (int i = 0; i < r.length; i++) next[i] = r[(int) tmp[i]];
+            r = next;
+        }
+        return r;
+    }
+
+    /* ---------- leapfrog ---------- */
+
+    /** 绑定第 c 个类；全部绑定后把满足其余原子的完整赋值（按变量的行号）加到 out */
+    private void join(int c, CompiledClause cq, List<int[]> out){
+        if (c == partVar.length) {
+            int[][] sub = new int[nVars][];
+            for (int t = 0; t < nVars; t++) sub[t] = Arrays.copyOfRange(rows[t], lo[t], hi[t]);
+            assign(0, cq, sub, new int[nVars], out);
+            return;
+        }
+        int[] vs = partVar[c], ls = partLevel[c];
+        int k = vs.length;
+        int[] pos = new int[k], end = new int[k], saveLo = new int[k], saveHi = new int[k];
+        int x = Integer.MIN_VALUE;
+        for (int p = 0; p < k; p++) {
+            saveLo[p] = lo[vs[p]];
+            saveHi[p] = hi[vs[p]];
+            pos[p] = saveLo[p];
+            x = Math.max(x, keys[vs[p]][ls[p]][pos[p]]);
+        }
+        while (true) {
+            boolean agree = true;
+            for (int p = 0; p < k; p++) {
+                int[] key = keys[vs[p]][ls[p]];
+                pos[p] = seek(key, pos[p], saveHi[p], x);
+                if (pos[p] == saveHi[p]) { restore(vs, saveLo, saveHi); return; }
+                if (key[pos[p]] > x) { x = key[pos[p]]; agree = false; }
+            }
+            if (!agree) continue;
+            for (int p = 0; p < k; p++) {
+                end[p] = seek(keys[vs[p]][ls[p]], pos[p], saveHi[p], x + 1);
+                lo[vs[p]] = pos[p];
+                hi[vs[p]] = end[p];
+            }
+            join(c + 1, cq, out);
+            pos[0] = end[0];
+            if (pos[0] == saveHi[0]) { restore(vs, saveLo, saveHi); return; }
+            x = keys[vs[0]][ls[0]][pos[0]];
+        }
+    }
+
+    private static void assign(int pos, CompiledClause cq, int[][] sub, int[] rows, List<int[]> out){
+        if (pos == rows.length) { out.add(rows.clone()); return; }
+        for (int r : sub[pos]) {
+            rows[pos] = r;
+            if (cq.testAt(pos, rows)) assign(pos + 1, cq, sub, rows, out);
+        }
+    }
+
+    private void restore(int[] vs, int[] saveLo, int[] saveHi){
+        for (int p = 0; p < vs.length; p++) { lo[vs[p]] = saveLo[p]; hi[vs[p]] = saveHi[p]; }
+    }
+
+    /** key[from, to) 升序：第一个 ≥ x 的位置（没有则 to）；先倍增再二分，连续小步 seek 的摊还代价低 */
+    private static int seek(int[] key, int from, int to, int x){
+        if (from >= to || key[from] >= x) return from;
+        int step = 1, l = from;                            // key[l] < x
+        while (l + step < to && key[l + step] < x) { l += step; step <<= 1; }
+        int h = Math.min(to, l + step);                    // key[h] ≥ x 或 h == to
+        while (h - l > 1) {
+            int mid = (l + h) >>> 1;
+            if (key[mid] < x) l = mid; else h = mid;
+        }
+        return h;
+    }
+}
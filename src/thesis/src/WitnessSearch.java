@@ -0,0 +1,139 @@
+package thesis.src;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.IntStream;
+
+/**
+ * 单个 BCQ 的回溯搜索与 witness 去重的并行版（-Dcqa.bcq.threads=N，默认 CPU 数；1 = 串行）。
+ *  - 搜索：按前 d 个变量的候选组合切段（d = 1；第一个变量的候选不够分时 d = 2），
+ *    RecursiveAction 对半递归到单段，ForkJoinPool 的工作窃取消化各段子树大小的不均；
+ *    每段写自己的缓冲，最后按段序拼接，与串行 Main.backtrackBCQ 的产出顺序完全一致，与线程数无关。
+ *  - 去重：并行规范化（+1、排序）并算哈希，再按哈希分片（一趟把下标分进各片的桶，每个任务只扫自己的桶，
+ *    总工作量 O(n)）、各片按下标顺序保留第一次出现的，最后按下标收集；结果与串行版相同（保留首次出现、保持原顺序）。
+ */
+final class WitnessSearch {
+
+    static final int THREADS = Math.max(1, Integer.getInteger("cqa.bcq.threads", Runtime.getRuntime().availableProcessors()));
+    /** 一段至少包含的前缀组合数；组合不到两段时不并行 */
+    static final int GRAIN = Math.max(1, Integer.getInteger("cqa.bcq.grain", 16));
+    /** 每个线程约分到的段数上限（段太碎时按组合数放大段长） */
+    private static final int SEGMENTS_PER_THREAD = 64;
+    /** 少于这么多条 witness 时串行去重 */
+    private static final int PAR_DEDUP_MIN = 1 << 14;
+
+    private static volatile ForkJoinPool pool;
+
+    private static ForkJoinPool pool(){
+        if (pool == null) {
+            synchronized (WitnessSearch.class) {
+                if (pool == null) pool = new ForkJoinPool(THREADS);
+            }
+        }
+        return pool;
+    }
+
+    /** 同 Main.backtrackBCQ(0, …)：cand[t] 为第 t 个变量的候选行，witness（0 基、去重排序）追加到 res */
+    static void search(CompiledClause cq, int[][] cand, List<int[]> res){
+        int k = cand.length;
+        int d = 1;
+        long combos = cand[0].length;
+        if (k > 1 && combos < (long) THREADS * GRAIN) { d = 2; combos *= cand[1].length; }
+        if (THREADS == 1 || combos < 2L * GRAIN) {
+            Main.backtrackBCQ(0, cq, cand, new int[k], res);
+            return;
+        }
+        long seg = Math.max(GRAIN, (combos + (long) THREADS * SEGMENTS_PER_THREAD - 1) / ((long) THREADS * SEGMENTS_PER_THREAD));
+        int nSeg = (int) ((combos + seg - 1) / seg);
+        List<List<int[]>> out = new ArrayList<>(Collections.nCopies(nSeg, null));
+        pool().invoke(new Part(cq, cand, d, combos, seg, out, 0, nSeg));
+        for (List<int[]> o : out) res.addAll(o);
+    }
+
+    /** 段 [a, b)：多于一段时对半 fork，否则跑这一段的前缀组合（只在池内使用，不序列化） */
+    private static final class Part extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        final transient CompiledClause cq;
+        final int[][] cand;
+        final int d;
+        final long combos, seg;
+        final transient List<List<int[]>> out;
+        final int a, b;
+
+        Part(CompiledClause cq, int[][] cand, int d, long combos, long seg, List<List<int[]>> out, int a, int b){
+            this.cq = cq; this.cand = cand; this.d = d; this.combos = combos; this.seg = seg; this.out = out; this.a = a; this.b = b;
+        }
+
+        @Override protected void compute(){
+            if (b - a > 1) {
+                int mid = (a + b) >>> 1;
+                invokeAll(new Part(cq, cand, d, combos, seg, out, a, mid), new Part(cq, cand, d, combos, seg, out, mid, b));
+                return;
+            }
+            List<int[]> buf = new ArrayList<>();
+            int[] rows = new int[cand.length];
+            long from = a * seg, to = Math.min(combos, from + seg);
+            if (d == 1) {
+                for (long x = from; x < to; x++) {
+                    rows[0] = cand[0][(int) x];
+                    if (cq.testAt(0, rows)) Main.backtrackBCQ(1, cq, cand, rows, buf);
+                }
+            } else {
+                int n1 = cand[1].length;
+                for (long x = from; x < to; x++) {
+                    rows[0] = cand[0][(int) (x / n1)];
+                    if (!cq.testAt(0, rows)) { x = (x / n1 + 1) * n1 - 1; continue; } // 跳过这个 rows[0] 的其余组合
+                    rows[1] = cand[1][(int) (x % n1)];
+                    if (cq.testAt(1, rows)) Main.backtrackBCQ(2, cq, cand, rows, buf);
+                }
+            }
+            out.set(a, buf);
+        }
+    }
+
+    /* ---------- 去重 ---------- */
+
+    /** 规范化后的 witness；哈希预先算好 */
+    private record Key(int[] ids, int hash) {
+        @Override public boolean equals(Object o){ return o instanceof Key k && hash == k.hash && Arrays.equals(ids, k.ids); }
+        @Override public int hashCode(){ return hash; }
+    }
+
+    /** 0 基 -> 1 基并排序，去掉重复（保留首次出现，顺序不变） */
+    static List<int[]> dedup(List<int[]> edges){
+        int n = edges.size();
+        int[][] norm = new int[n][];
+        int[] h = new int[n];
+        boolean par = THREADS > 1 && n >= PAR_DEDUP_MIN;
+        IntStream idx = par ? IntStream.range(0, n).parallel() : IntStream.range(0, n);
+        Runnable prep = () -> idx.forEach(i -> {
+            int[] x = edges.get(i).clone();
+            for (int j = 0; j < x.length; j++) x[j]++;
+            Arrays.sort(x);
+            norm[i] = x;
+            h[i] = Arrays.hashCode(x);
+        });
+        boolean[] keep = new boolean[n];
+        if (par) {
+            int shards = THREADS;
+            pool().submit(prep).join();
+            int[] start = new int[shards + 1];                  // 分片 s 的下标在 byShard[start[s], start[s+1])，保持升序
+            for (int i = 0; i < n; i++) start[Math.floorMod(h[i], shards) + 1]++;
+            for (int s = 0; s < shards; s++) start[s + 1] += start[s];
+            int[] byShard = new int[n], fill = Arrays.copyOf(start, shards);
+            for (int i = 0; i < n; i++) byShard[fill[Math.floorMod(h[i], shards)]++] = i;
+            pool().submit(() -> IntStream.range(0, shards).parallel().forEach(s -> {
+                Set<Key> seen = new HashSet<>();
+                for (int j = start[s]; j < start[s + 1]; j++) { int i = byShard[j]; keep[i] = seen.add(new Key(norm[i], h[i])); }
+            })).join();
+        } else {
+            prep.run();
+            Set<Key> seen = new HashSet<>();
+            for (int i = 0; i < n; i++) keep[i] = seen.add(new Key(norm[i], h[i]));
+        }
+        List<int[]> out = new ArrayList<>();
+        for (int i = 0; i < n; i++) if (keep[i]) out.add(norm[i]);
+        return out;
+    }
+}
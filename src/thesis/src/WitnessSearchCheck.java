@@ -0,0 +1,101 @@
+package thesis.src;
+
+import java.util.*;
+
+/**
+ * WitnessSearch 的随机对拍：
+ *  - 搜索：随机小表 + 含不等式的 BCQ（不走 TrieJoin），并行 search 与串行 Main.backtrackBCQ 的结果逐条、按顺序相同；
+ *  - 去重：随机 witness 列表（含超过并行阈值的长度），dedup 与朴素的“规范化后保留首次出现”逐条相同。
+ * 用法：java -Dcqa.bcq.threads=4 -Dcqa.bcq.grain=1 thesis.src.WitnessSearchCheck [seed] [iters]
+ * （小表上默认 grain 常常切不出两段，调小才能真正走并行分段）。不一致时打印位置并以状态 1 退出。
+ */
+final class WitnessSearchCheck {
+
+    private static final String[] QUERIES = {
+        "( t1.A < t2.A && t2.B != t3.B && t3.C > 2 )",
+        "( t1.A = 1 && t2.B < t1.B && t1.C != t2.C )",
+        "( t1.A != t2.B && t1.D >= t2.D )",
+        "( t1.A > 5 )",
+    };
+
+    public static void main(String[] args){
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+        int iters = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        Random rnd = new Random(seed);
+        List<Main.BCQ> qs = new ArrayList<>();
+        for (String q : QUERIES) qs.add(Main.parseBUCQ(List.of(q)).disj.get(0));
+
+        for (int it = 0; it < iters; it++) {
+            Main.Facts facts = table(rnd, 5 + rnd.nextInt(60), 1 + rnd.nextInt(10), rnd.nextDouble() * 0.2);
+            for (int qi = 0; qi < qs.size(); qi++) {
+                Main.BCQ q = qs.get(qi);
+                int[][] cand = candidates(facts, q);
+                if (cand == null) continue;
+                CompiledClause cq = CompiledClause.compile(facts, q.atoms, q.vars);
+                List<int[]> serial = new ArrayList<>(), par = new ArrayList<>();
+                Main.backtrackBCQ(0, cq, cand, new int[cand.length], serial);
+                WitnessSearch.search(cq, cand, par);
+                check(par, serial, "search it=" + it + " q=" + QUERIES[qi]);
+                check(WitnessSearch.dedup(par), dedup(serial), "search+dedup it=" + it + " q=" + QUERIES[qi]);
+            }
+        }
+
+        for (int it = 0; it < 6; it++) {
+            int n = it % 2 == 0 ? 100 + rnd.nextInt(2000) : 20000 + rnd.nextInt(40000);
+            List<int[]> l = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                int[] x = new int[1 + rnd.nextInt(3)];
+                for (int j = 0; j < x.length; j++) x[j] = rnd.nextInt(60);
+                l.add(x);
+            }
+            check(WitnessSearch.dedup(l), dedup(l), "dedup n=" + n);
+        }
+        System.out.println("OK " + iters + " threads=" + WitnessSearch.THREADS + " grain=" + WitnessSearch.GRAIN);
+    }
+
+    /** 列 A..D，取值 [0, dom)，以概率 nulls 置空 */
+    private static Main.Facts table(Random rnd, int n, int dom, double nulls){
+        Map<String,Integer> cols = new HashMap<>();
+        String[] names = {"A", "B", "C", "D"};
+        for (int i = 0; i < names.length; i++) cols.put(names[i], i);
+        List<Main.Fact> rows = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            String[] v = new String[names.length];
+            for (int j = 0; j < v.length; j++) v[j] = rnd.nextDouble() < nulls ? null : String.valueOf(rnd.nextInt(dom));
+            rows.add(new Main.Fact(cols, v));
+        }
+        return new Main.Facts(rows);
+    }
+
+    /** 同 Main.evalBCQToWitnesses 的预筛；某变量无候选时返回 null */
+    private static int[][] candidates(Main.Facts facts, Main.BCQ q){
+        int[][] cand = new int[q.vars.size()][];
+        for (int t = 0; t < cand.length; t++) {
+            int[] rows = Main.constCandidates(facts, q.atoms, q.vars.get(t));
+            if (rows == null) { rows = new int[facts.size()]; for (int i = 0; i < rows.length; i++) rows[i] = i; }
+            if (rows.length == 0) return null;
+            cand[t] = rows;
+        }
+        return cand;
+    }
+
+    /** 朴素参照：0 基 -> 1 基、排序，按字符串键保留首次出现 */
+    private static List<int[]> dedup(List<int[]> edges){
+        Set<String> seen = new HashSet<>();
+        List<int[]> out = new ArrayList<>();
+        for (int[] e : edges) {
+            int[] x = Arrays.stream(e).map(i -> i + 1).sorted().toArray();
+            if (seen.add(Arrays.toString(x))) out.add(x);
+        }
+        return out;
+    }
+
+    private static void check(List<int[]> got, List<int[]> exp, String where){
+        int bad = got.size() == exp.size() ? -1 : Math.min(got.size(), exp.size());
+        for (int i = 0; bad < 0 && i < got.size(); i++) if (!Arrays.equals(got.get(i), exp.get(i))) bad = i;
+        if (bad >= 0) {
+            System.out.println("MISMATCH " + where + " at " + bad + " got=" + got.size() + " expected=" + exp.size());
+            System.exit(1);
+        }
+    }
+}